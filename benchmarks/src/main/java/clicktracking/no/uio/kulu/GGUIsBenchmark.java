@@ -0,0 +1,223 @@
+package clicktracking.no.uio.kulu;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+import javax.swing.RepaintManager;
+
+import no.uio.kulu.Clock;
+import no.uio.kulu.VirtualClock;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/* GGUIsBenchmark.java
+
+   Hand point events per second through GGUIsManager.updateGGUIs(), over
+   3 to 500 button GGUIs laid out in a grid.
+
+   The hand follows a fixed Lissajous path over the grid, with a little
+   shake, so it goes in and out of the buttons and over the gaps between
+   them. It holds still, apart from the shake, for 3 s out of every 512
+   points. The game's default Clock is a VirtualClock, moved on by one
+   sensor frame period (1/30 s) for each event, so the buttons' dwell
+   timers see the hand move as fast as it would live. Where the hand stays
+   within a button long enough, the button is pressed; the "presses"
+   counter is the rate of those.
+
+   The panels are never shown, so the manager's screen rectangles, which
+   locateComponents() only finds for showing panels, are given to it with
+   setScreenRects() from the grid, with the grid's top-left corner at the
+   screen's. The panels' repaint() requests are caught by a RepaintManager
+   that counts them and doesn't paint anything; the "repaints" counter is
+   their rate.
+
+   Run from the project directory with the gc profiler, for the bytes
+   allocated per event (gc.alloc.rate.norm):
+     java -jar benchmarks/target/benchmarks.jar GGUIsBenchmark -prof gc
+   or with the main() below, which also prints the repaints and presses
+   per event.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GGUIsBenchmark
+{
+	private static final int GAP = 10;               // pixels between two buttons
+	private static final int NUM_POINTS = 4096;      // hand points in the path; a power of 2
+	private static final int SHAKE = 3;              // pixels of hand shake
+	private static final int HOLD_EVERY = 512;       // points between the starts of two holds
+	private static final int HOLD_POINTS = 90;       // points the hand holds still for (3 s)
+	private static final long FRAME_NANOS = 1000000000L / 30;   // the clock's step for each event
+
+	@Param({"3", "10", "50", "500"})
+	public int panels;
+
+	private GGUIsManager manager;
+	private VirtualClock clock;
+	private Counters counters;    // of the current iteration, for the buttons' presses
+	private Point[] path;
+	private int next;
+	private CountingRepaintManager repaintManager;
+	private RepaintManager oldRepaintManager;
+
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters
+	{
+		public long repaints;
+		public long presses;
+
+		@Setup(Level.Iteration)
+		public void reset()
+		{
+			repaints = 0;
+			presses = 0;
+		}
+	} // end of Counters class
+
+
+	private static class CountingRepaintManager extends RepaintManager
+	// counts the repaint requests, and drops them
+	{
+		Counters counters = new Counters();
+
+		public void addDirtyRegion(JComponent c, int x, int y, int w, int h)
+		{  counters.repaints++;  }
+	} // end of CountingRepaintManager class
+
+
+	private class CountingButton extends ButtonPanel
+	// counts its presses, instead of announcing them to a GestureGUI
+	{
+		CountingButton(String label)
+		{  super(label, null);  }
+
+		public void updatePressed()
+		{  counters.presses++;  }
+	} // end of CountingButton class
+
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception
+	{
+		if (!new File("images").isDirectory())
+			throw new IOException("No images/ directory in " + new File("").getAbsolutePath() +
+					"; run the benchmarks from the project directory");
+		clock = new VirtualClock();
+		Clock.setDefault(clock);    // read by the panels when they are made
+		counters = new Counters();    // the presses before the first iteration go nowhere
+
+		manager = new GGUIsManager();
+		JPanel grid = new JPanel(null);
+		ArrayList<Rectangle> scrRects = new ArrayList<Rectangle>();
+		int cols = (int) Math.ceil(Math.sqrt(panels));
+		int gridWidth = 0, gridHeight = 0;
+		for (int i = 0; i < panels; i++) {
+			ButtonPanel button = new CountingButton("b" + i);
+			int w = button.getWidth();
+			int h = button.getHeight();
+			Rectangle r = new Rectangle((i % cols) * (w + GAP), (i / cols) * (h + GAP), w, h);
+			button.setBounds(r);
+			grid.add(button);
+			manager.add(button);
+			scrRects.add(r);
+			gridWidth = Math.max(gridWidth, r.x + w);
+			gridHeight = Math.max(gridHeight, r.y + h);
+		}
+		grid.setSize(gridWidth, gridHeight);
+
+		manager.setScreenRects(scrRects);
+
+		path = new Point[NUM_POINTS];
+		int moves = 0;    // the points the hand has moved along the curve
+		for (int i = 0; i < NUM_POINTS; i++) {
+			if (i % HOLD_EVERY >= HOLD_POINTS)    // not holding still
+				moves++;
+			double t = 2 * Math.PI * moves / (NUM_POINTS - NUM_POINTS / HOLD_EVERY * HOLD_POINTS);
+			int shake = (int) Math.round(SHAKE * Math.sin(i * 1.3));
+			path[i] = new Point((int) (gridWidth * (0.5 + 0.5 * Math.sin(3 * t))) + shake,
+					(int) (gridHeight * (0.5 + 0.5 * Math.sin(2 * t + 0.5))) - shake);
+		}
+
+		oldRepaintManager = RepaintManager.currentManager(grid);
+		repaintManager = new CountingRepaintManager();
+		RepaintManager.setCurrentManager(repaintManager);
+	}  // end of setup()
+
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		RepaintManager.setCurrentManager(oldRepaintManager);
+		Clock.setDefault(Clock.SYSTEM);
+	}
+
+
+	@Benchmark
+	public void updateGGUIs(Counters counters)
+	{
+		repaintManager.counters = counters;
+		this.counters = counters;
+		clock.advance(FRAME_NANOS);
+		manager.updateGGUIs(path[next]);
+		next = (next + 1) & (NUM_POINTS - 1);
+	}
+
+
+	public static void main(String args[]) throws RunnerException, CommandLineOptionException
+	// run the benchmark with the gc profiler and any JMH options given, and sum up the results per event
+	{
+		Collection<RunResult> results = new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(GGUIsBenchmark.class.getName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+
+		System.out.println();
+		System.out.println("panels   events/s   repaints/event   presses/event   bytes/event");
+		for (RunResult r : results) {
+			double events = r.getPrimaryResult().getScore();
+			Result repaints = r.getSecondaryResults().get("repaints");
+			Result presses = r.getSecondaryResults().get("presses");
+			Result alloc = r.getSecondaryResults().get("gc.alloc.rate.norm");
+			System.out.println(String.format("%6s %10.0f %16.1f %15.4f %13.1f",
+					r.getParams().getParam("panels"), events,
+					(repaints == null || events == 0) ? Double.NaN : repaints.getScore() / events,
+					(presses == null || events == 0) ? Double.NaN : presses.getScore() / events,
+					(alloc == null) ? Double.NaN : alloc.getScore()));
+		}
+	}  // end of main()
+
+} // end of GGUIsBenchmark class
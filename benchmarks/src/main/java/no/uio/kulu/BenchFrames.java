@@ -0,0 +1,79 @@
+package no.uio.kulu;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.OpenNI.StatusException;
+
+/* BenchFrames.java
+
+   A fixed set of frames for the benchmarks, read once at the start so the
+   benchmarks measure the processing and not the source.
+
+   The frames come from a SyntheticFrameSource with the given number of
+   users, taken once all of them have walked in and been calibrated, or
+   from a FrameRecorder recording if the kulu.bench.recording system
+   property names its directory (the number of users is then whatever was
+   recorded). The benchmark cycles through them with next().
+
+   The game's images are loaded from files/, so the benchmarks must be run
+   from the project directory.
+ */
+class BenchFrames
+{
+	static final String RECORDING_PROPERTY = "kulu.bench.recording";
+	static final int WIDTH = 640, HEIGHT = 480;
+
+	private static final int SETTLE_FRAMES = 100;   // synthetic frames before every user is calibrated
+
+	private FrameSource source;
+	private Frame[] frames;
+	private int next;
+
+
+	BenchFrames(int numUsers, int numFrames) throws IOException, StatusException
+	{
+		if (!new File("files").isDirectory())
+			throw new IOException("No files/ directory in " + new File("").getAbsolutePath() +
+					"; run the benchmarks from the project directory");
+
+		String recording = System.getProperty(RECORDING_PROPERTY);
+		int skip;
+		if (recording != null) {
+			source = new RecordedFrameSource(new File(recording), 0);   // as fast as possible
+			skip = 0;
+		}
+		else {
+			source = new SyntheticFrameSource(WIDTH, HEIGHT, numUsers, 0);
+			skip = SETTLE_FRAMES;
+		}
+
+		for (int i = 0; i < skip; i++)
+			source.waitForUpdate();
+		frames = new Frame[numFrames];
+		for (int i = 0; i < numFrames; i++) {
+			source.waitForUpdate();
+			frames[i] = new Frame(source.getWidth(), source.getHeight());
+			source.readFrame(frames[i]);
+		}
+	} // end of BenchFrames()
+
+
+	FrameSource getSource()
+	{  return source;  }
+
+	int size()
+	{  return frames.length;  }
+
+	Frame get(int i)
+	{  return frames[i];  }
+
+	Frame next()
+	// the frames in turn, starting again after the last
+	{
+		Frame frame = frames[next];
+		next = (next + 1) % frames.length;
+		return frame;
+	}
+
+} // end of BenchFrames class
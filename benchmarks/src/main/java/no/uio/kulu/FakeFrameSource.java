@@ -0,0 +1,106 @@
+package no.uio.kulu;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.OpenNI.Context;
+import org.OpenNI.Point3D;
+
+/* FakeFrameSource.java
+
+   A FrameSource over the BenchFrames, for the benchmarks that feed the
+   frames into Skeletons or a TrackerPanel. It never waits: readFrame()
+   copies the frames in turn into the given frame, starting again after
+   the last, without moving the BenchFrames' own next().
+
+   Skeletons and TrackerPanel register their UserListeners with a source
+   when they are made, after the frames were read, so announce() raises
+   the user events again: each of a frame's users is detected, and
+   calibrated if it has a skeleton, as the sensor would have done before
+   that frame.
+ */
+class FakeFrameSource implements FrameSource
+{
+	private BenchFrames frames;
+	private int width, height;
+	private int next;    // index of the frame readFrame() copies
+	private List<UserListener> listeners = new ArrayList<UserListener>();
+
+
+	FakeFrameSource(BenchFrames frames)
+	{
+		this.frames = frames;
+		width = frames.get(0).getWidth();
+		height = frames.get(0).getHeight();
+	}
+
+	void announce(Frame frame)
+	// detect, and calibrate, the frame's users
+	{
+		for (int userID : frame.trackedUsers) {
+			for (UserListener l : listeners)
+				l.userDetected(userID);
+			if (frame.skeletonTracked[userID])
+				for (UserListener l : listeners)
+					l.userCalibrated(userID);
+		}
+	}  // end of announce()
+
+
+	public int getWidth()
+	{  return width;  }
+
+	public int getHeight()
+	{  return height;  }
+
+	public Context getContext()
+	{  return null;  }
+
+	public void addUserListener(UserListener listener)
+	{  listeners.add(listener);  }
+
+	public void addContextListener(ContextListener listener)
+	{}    // there is no context to replace
+
+	public void waitForUpdate()
+	{}    // the next frame is always ready
+
+	public boolean waitForUpdate(long timeoutMillis)
+	{  return true;  }
+
+	public boolean reinitialize()
+	{  return false;  }
+
+	public void readFrame(Frame frame)
+	// copy the next of the frames into frame
+	{
+		Frame from = frames.get(next);
+		next = (next + 1) % frames.size();
+
+		frame.frameId = from.frameId;
+		frame.timestamp = from.timestamp;
+		frame.rgbFrameId = from.rgbFrameId;
+		frame.rgbTimestamp = from.rgbTimestamp;
+		frame.acquiredNanos = System.nanoTime();
+		frame.isValid = from.isValid;
+		System.arraycopy(from.depth, 0, frame.depth, 0, from.depth.length);
+		System.arraycopy(from.labels, 0, frame.labels, 0, from.labels.length);
+		System.arraycopy(from.rgb, 0, frame.rgb, 0, from.rgb.length);
+		if (frame.trackedUsers.length != from.trackedUsers.length)
+			frame.trackedUsers = new int[from.trackedUsers.length];
+		System.arraycopy(from.trackedUsers, 0, frame.trackedUsers, 0, from.trackedUsers.length);
+		System.arraycopy(from.skeletonTracked, 0, frame.skeletonTracked, 0, Frame.MAX_USERS);
+		for (int userID = 0; userID < Frame.MAX_USERS; userID++) {
+			System.arraycopy(from.jointX[userID], 0, frame.jointX[userID], 0, Frame.NUM_JOINTS);
+			System.arraycopy(from.jointY[userID], 0, frame.jointY[userID], 0, Frame.NUM_JOINTS);
+			System.arraycopy(from.jointZ[userID], 0, frame.jointZ[userID], 0, Frame.NUM_JOINTS);
+			System.arraycopy(from.jointConfidence[userID], 0, frame.jointConfidence[userID], 0, Frame.NUM_JOINTS);
+		}
+	}  // end of readFrame()
+
+	public Point3D convertRealWorldToProjective(Point3D point)
+	{  return point;  }
+
+	public void release() {}
+
+} // end of FakeFrameSource class
@@ -0,0 +1,219 @@
+package no.uio.kulu;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/* KernelBenchmark.java
+
+   Throughput of the per-frame kernels on 640x480 frames (see BenchFrames):
+
+     encodeLabelRuns    LabelRuns.encode() of the label map
+     findBounds         the users' bounding boxes from the label runs
+     convertRGB         RGBConverter over the whole RGB image
+     convertRGBStrips   the same, split into strips by a StripExecutor
+     depthView          DepthView.update(), the depth histogram and colouring,
+                        in strips
+     processMaskFirst   TrackerPanel.process() with the mask-first kernel
+     processPerPixel    TrackerPanel.process() with the per-pixel kernel,
+                        which reads every label, and converts the wanted
+                        users' pixels and finds their bounds in one pass
+
+   The strip benchmarks are run serially (threads = 1) and in parallel. The
+   process benchmarks take each frame on through updatePlayers() and
+   recycle(), as BatchProcessor does, so the user images go back to the
+   pool and the same buffers are reused.
+
+   Run from the project directory with the gc profiler, for the bytes
+   allocated per frame (gc.alloc.rate.norm):
+     java -jar benchmarks/target/benchmarks.jar KernelBenchmark -prof gc
+   or with the main() below.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark
+{
+	private static final int NUM_FRAMES = 8;    // frames cycled through
+
+
+	@State(Scope.Thread)
+	public static class Frames
+	{
+		@Param({"1", "3", "6"})
+		public int users;     // ignored for a recording
+
+		BenchFrames frames;
+		RGBConverter converter;
+		int[] argb;
+		Rectangle[] bounds;
+
+		@Setup(Level.Trial)
+		public void setup() throws Exception
+		{
+			frames = new BenchFrames(users, NUM_FRAMES);
+			for (int i = 0; i < frames.size(); i++) {
+				Frame frame = frames.get(i);
+				frame.labelRuns.encode(frame.labels);    // read by findBounds and the depth view
+			}
+			int width = frames.getSource().getWidth();
+			int height = frames.getSource().getHeight();
+			converter = new RGBConverter(width, height);
+			argb = new int[width * height];
+			bounds = new Rectangle[Frame.MAX_USERS];
+			for (int i = 0; i < bounds.length; i++)
+				bounds[i] = new Rectangle();
+		}
+	} // end of Frames class
+
+
+	@State(Scope.Thread)
+	public static class Strips
+	{
+		@Param({"1", "4"})
+		public int threads;
+
+		StripExecutor strips;
+		TrackerPanel trackPanel;
+		DepthView depthView;
+		int width;
+
+		// the frame being converted by convertTask
+		Frame frame;
+		int[] argb;
+
+		StripExecutor.StripTask convertTask = new StripExecutor.StripTask() {
+			public void run(int strip, int firstRow, int endRow)
+			{  RGBConverter.convert(frame.rgb, 3*firstRow*width, argb, firstRow*width, (endRow-firstRow)*width);  }
+		};
+
+		@Setup(Level.Trial)
+		public void setup(Frames frames)
+		{
+			strips = new StripExecutor(threads > 1, threads);   // shared by the panel, the depth view and convertTask
+			trackPanel = new TrackerPanel(frames.frames.getSource(), "files/Dictotor1.jpg", strips);
+			trackPanel.addCameraListener(new EveryUser());
+			width = frames.frames.getSource().getWidth();
+			depthView = new DepthView(width, frames.frames.getSource().getHeight(), strips);
+		}
+
+		void finish(Frame frame)
+		// hand the user images on, and get back the ones they replace
+		{
+			trackPanel.updatePlayers(frame);
+			trackPanel.recycle(frame);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown()
+		{  trackPanel.close();  }    // shuts down strips
+	} // end of Strips class
+
+
+	private static class EveryUser implements CameraListener
+	// wants an image of every user
+	{
+		public boolean wantsUser(int userID)
+		{  return true;  }
+
+		public void userPictureUpdate(int i, BufferedImage userImage, int x, int y, Rectangle bounds) {}
+	}
+
+
+	// --------------------- single-threaded kernels ------------------------
+
+	@Benchmark
+	public int encodeLabelRuns(Frames s)
+	{
+		Frame frame = s.frames.next();
+		frame.labelRuns.encode(frame.labels);
+		return frame.labelRuns.getNumRuns();
+	}
+
+	@Benchmark
+	public Rectangle[] findBounds(Frames s)
+	{
+		s.frames.next().labelRuns.findBounds(s.bounds);
+		return s.bounds;
+	}
+
+	@Benchmark
+	public int[] convertRGB(Frames s)
+	{
+		s.converter.convert(s.frames.next().rgb, s.argb);
+		return s.argb;
+	}
+
+
+	// --------------------- serial and strip-parallel kernels ------------------------
+
+	@Benchmark
+	public int[] convertRGBStrips(Frames s, Strips k)
+	{
+		k.frame = s.frames.next();
+		k.argb = s.argb;
+		k.strips.run(k.frame.getHeight(), k.convertTask);
+		return s.argb;
+	}
+
+	@Benchmark
+	public BufferedImage depthView(Frames s, Strips k)
+	{
+		k.depthView.update(s.frames.next());
+		return k.depthView.getImage();
+	}
+
+	@Benchmark
+	public Frame processMaskFirst(Frames s, Strips k)
+	{
+		Frame frame = s.frames.next();
+		k.trackPanel.setMaskFirst(true);
+		k.trackPanel.process(frame);
+		k.finish(frame);
+		return frame;
+	}
+
+	@Benchmark
+	public Frame processPerPixel(Frames s, Strips k)
+	{
+		Frame frame = s.frames.next();
+		k.trackPanel.setMaskFirst(false);
+		k.trackPanel.process(frame);
+		k.finish(frame);
+		return frame;
+	}
+
+
+	public static void main(String args[]) throws RunnerException, CommandLineOptionException
+	// run these benchmarks with the gc profiler, and any JMH options given
+	{
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(KernelBenchmark.class.getName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}  // end of main()
+
+} // end of KernelBenchmark class
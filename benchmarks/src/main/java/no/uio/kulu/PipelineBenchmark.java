@@ -0,0 +1,272 @@
+package no.uio.kulu;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.OpenNI.StatusException;
+
+/* PipelineBenchmark.java
+
+   Times every stage of the game's frame processing over a fixed synthetic
+   scene, and checks the times against a baseline.
+
+   The scene is a SyntheticFrameSource with a number of users, run on a
+   VirtualClock, so every run sees the same frames, and the players'
+   messages come and go at the same frames. Each frame goes through
+   the stages of the sensor loop in turn, without a window:
+
+     acquire   SyntheticFrameSource draws the frame (reported, not checked)
+     process   TrackerPanel.process(): the label runs and the user images
+     players   TrackerPanel.updatePlayers(): the images to the
+               PlayerController, Skeletons.update() and the costume positions
+     render    TrackerPanel.paintComponent() into an offscreen image of the
+               window's size, then recycle()
+     frame     process + players + render
+
+   The first WARMUP frames are not measured, so the users have all walked
+   in and been calibrated, and the JIT has compiled the loops. Of the
+   measured frames, p50, p95, p99 and the maximum of each stage are
+   reported, in ms.
+
+   The p50 and p95 of the checked stages are compared with the baseline
+   file, and a time more than the tolerance (a fraction) above the
+   baseline is a regression, unless it is less than MIN_DIFF ms slower.
+   The p99 and maximum are shown beside the baseline, but they are mostly
+   made of GC pauses and other noise, so they aren't checked. The exit
+   status is 1 if there was a regression, and 2 if the baseline is missing
+   or for another scene. -record writes the baseline from this run
+   instead. A baseline only means something on the machine it was
+   recorded on, so it notes the processors and Java version, and a
+   different machine gets a warning.
+
+   Usage: PipelineBenchmark [-baseline <file>] [-tolerance <fraction>] [-record]
+   Run from the project directory; the default baseline is
+   benchmarks/pipeline-baseline.properties. The benchmarks' pom runs it
+   with:  mvn -f benchmarks/pom.xml -Ppipeline verify
+ */
+public class PipelineBenchmark
+{
+	private static final String BACKGROUND_FNM = "files/Dictotor1.jpg";
+	private static final String BASELINE_FNM = "benchmarks/pipeline-baseline.properties";
+
+	private static final int NUM_USERS = 4;
+	private static final int WARMUP = 300;      // frames before the measurements
+	private static final int NUM_FRAMES = 900;  // measured frames; 30 s of the scene
+	private static final int SCREEN_WIDTH = 1600, SCREEN_HEIGHT = 600;   // the game window
+
+	private static final double TOLERANCE = 0.25;    // default fraction slower that is a regression
+	private static final double MIN_DIFF = 0.05;     // ms slower that is never a regression
+
+	private static final String[] STAGES = {"acquire", "process", "players", "render", "frame"};
+	private static final boolean[] CHECKED = {false, true, true, true, true};
+	private static final int ACQUIRE = 0, PROCESS = 1, PLAYERS = 2, RENDER = 3, FRAME = 4;
+	private static final double[] PERCENTILES = {0.50, 0.95, 0.99};
+	private static final String[] PERCENTILE_NAMES = {"p50", "p95", "p99"};
+	private static final int NUM_CHECKED = 2;   // the first percentiles, which are checked
+
+	private long[][] times = new long[STAGES.length][NUM_FRAMES];   // nanos, by stage and frame
+	private String kernel;
+
+
+	private void run() throws StatusException
+	// put the scene through the stages, and keep the times of the measured frames
+	{
+		Clock.setDefault(new VirtualClock());
+		SyntheticFrameSource source = new SyntheticFrameSource(BenchFrames.WIDTH, BenchFrames.HEIGHT, NUM_USERS, 0);
+		TrackerPanel trackPanel = new TrackerPanel(source, BACKGROUND_FNM);
+		trackPanel.setSize(SCREEN_WIDTH, SCREEN_HEIGHT);
+		kernel = StripExecutor.fromSystemProperties() + (trackPanel.isMaskFirst() ? ", mask-first" : ", per-pixel");
+		BufferedImage screen = new BufferedImage(SCREEN_WIDTH, SCREEN_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		Frame frame = new Frame(source.getWidth(), source.getHeight());
+
+		for (int i = -WARMUP; i < NUM_FRAMES; i++) {
+			long t0 = System.nanoTime();
+			source.waitForUpdate();
+			trackPanel.acquire(frame);
+			long t1 = System.nanoTime();
+			trackPanel.process(frame);
+			long t2 = System.nanoTime();
+			trackPanel.updatePlayers(frame);
+			long t3 = System.nanoTime();
+			Graphics2D g2d = screen.createGraphics();
+			trackPanel.paintComponent(g2d);
+			g2d.dispose();
+			trackPanel.recycle(frame);
+			long t4 = System.nanoTime();
+
+			if (i >= 0) {
+				times[ACQUIRE][i] = t1 - t0;
+				times[PROCESS][i] = t2 - t1;
+				times[PLAYERS][i] = t3 - t2;
+				times[RENDER][i] = t4 - t3;
+				times[FRAME][i] = t4 - t1;
+			}
+		}
+		trackPanel.close();
+		source.release();
+	}  // end of run()
+
+
+	private Properties results()
+	// the percentiles and maximum of each stage (ms), and the scene and machine
+	{
+		Properties props = new Properties();
+		props.setProperty("scene", sceneName());
+		props.setProperty("machine", machineName());
+		for (int s = 0; s < STAGES.length; s++) {
+			long[] sorted = times[s].clone();
+			Arrays.sort(sorted);
+			for (int p = 0; p < PERCENTILES.length; p++)
+				props.setProperty(STAGES[s] + "." + PERCENTILE_NAMES[p], format(percentile(sorted, PERCENTILES[p])));
+			props.setProperty(STAGES[s] + ".max", format(sorted[sorted.length-1]));
+		}
+		return props;
+	}  // end of results()
+
+
+	private static long percentile(long[] sorted, double p)
+	// the nearest-rank percentile
+	{
+		int rank = (int) Math.ceil(p * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+
+	private static String format(long nanos)
+	{  return String.format("%.3f", nanos / 1e6);  }
+
+	private String sceneName()
+	{  return NUM_USERS + " synthetic users, " + WARMUP + "+" + NUM_FRAMES + " frames, " + kernel;  }
+
+	private static String machineName()
+	{
+		return Runtime.getRuntime().availableProcessors() + " processors, Java " +
+				System.getProperty("java.version") + " " + System.getProperty("os.arch");
+	}
+
+
+	private static boolean compare(Properties current, Properties baseline, double tolerance)
+	// print the results beside the baseline; false if a checked stage regressed
+	{
+		boolean ok = true;
+		System.out.println(String.format("%-8s %-5s %10s %10s %8s", "stage", "", "ms", "baseline", "change"));
+		for (int s = 0; s < STAGES.length; s++) {
+			for (int p = 0; p <= PERCENTILES.length; p++) {
+				String key = STAGES[s] + "." + ((p < PERCENTILES.length) ? PERCENTILE_NAMES[p] : "max");
+				double ms = Double.parseDouble(current.getProperty(key));
+				String base = (baseline == null) ? null : baseline.getProperty(key);
+				if (base == null) {
+					System.out.println(String.format("%-8s %-5s %10.3f", STAGES[s], key.substring(key.indexOf('.')+1), ms));
+					continue;
+				}
+				double baseMs = Double.parseDouble(base);
+				boolean regressed = CHECKED[s] && p < NUM_CHECKED &&
+						ms > baseMs * (1 + tolerance) && ms - baseMs > MIN_DIFF;
+				if (regressed)
+					ok = false;
+				System.out.println(String.format("%-8s %-5s %10.3f %10.3f %+7.0f%%%s",
+						STAGES[s], key.substring(key.indexOf('.')+1), ms, baseMs,
+						(baseMs > 0) ? (ms - baseMs) * 100 / baseMs : 0.0,
+						regressed ? "  REGRESSED" : ""));
+			}
+		}
+		return ok;
+	}  // end of compare()
+
+
+	private static Properties load(File file) throws IOException
+	{
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			props.load(in);
+		}
+		finally {
+			in.close();
+		}
+		return props;
+	}  // end of load()
+
+
+	private static void store(Properties props, File file) throws IOException
+	// write the results in the order they are printed, so baselines can be diffed
+	{
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		try {
+			out.println("# PipelineBenchmark baseline (ms); rewrite with PipelineBenchmark -record");
+			out.println("scene=" + props.getProperty("scene"));
+			out.println("machine=" + props.getProperty("machine"));
+			for (String stage : STAGES) {
+				for (String p : PERCENTILE_NAMES)
+					out.println(stage + "." + p + "=" + props.getProperty(stage + "." + p));
+				out.println(stage + ".max=" + props.getProperty(stage + ".max"));
+			}
+		}
+		finally {
+			out.close();
+		}
+	}  // end of store()
+
+
+
+	public static void main(String args[]) throws IOException, StatusException
+	{
+		System.setProperty("java.awt.headless", "true");
+		File baselineFile = new File(BASELINE_FNM);
+		double tolerance = TOLERANCE;
+		boolean record = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-baseline") && i+1 < args.length)
+				baselineFile = new File(args[++i]);
+			else if (args[i].equals("-tolerance") && i+1 < args.length)
+				tolerance = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-record"))
+				record = true;
+			else {
+				System.out.println("Usage: PipelineBenchmark [-baseline <file>] [-tolerance <fraction>] [-record]");
+				System.exit(2);
+			}
+		}
+
+		PipelineBenchmark bench = new PipelineBenchmark();
+		bench.run();
+		Properties current = bench.results();
+		System.out.println("Pipeline: " + current.getProperty("scene") + "; " + current.getProperty("machine"));
+
+		if (record) {
+			compare(current, null, tolerance);
+			store(current, baselineFile);
+			System.out.println("Wrote the baseline to " + baselineFile);
+			return;
+		}
+
+		if (!baselineFile.exists()) {
+			compare(current, null, tolerance);
+			System.out.println("No baseline in " + baselineFile + "; record one with -record");
+			System.exit(2);
+		}
+		Properties baseline = load(baselineFile);
+		if (!current.getProperty("scene").equals(baseline.getProperty("scene"))) {
+			compare(current, null, tolerance);
+			System.out.println("The baseline in " + baselineFile + " is for another scene: " +
+					baseline.getProperty("scene"));
+			System.exit(2);
+		}
+		if (!current.getProperty("machine").equals(baseline.getProperty("machine")))
+			System.out.println("Warning: the baseline was recorded on another machine: " +
+					baseline.getProperty("machine"));
+
+		boolean ok = compare(current, baseline, tolerance);
+		System.out.println(ok ? "No stage is more than " + Math.round(tolerance * 100) + "% slower than the baseline" :
+				"Regression: a stage is more than " + Math.round(tolerance * 100) + "% slower than the baseline");
+		System.exit(ok ? 0 : 1);
+	}  // end of main()
+
+} // end of PipelineBenchmark class
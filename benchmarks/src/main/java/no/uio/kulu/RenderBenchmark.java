@@ -0,0 +1,133 @@
+package no.uio.kulu;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/* RenderBenchmark.java
+
+   Draws the players' costumes into an offscreen image of the game
+   window's size, as TrackerPanel.paintComponent() does on each frame:
+
+     drawAll       PlayerController.drawAll(), every player and the message
+     drawPlayers   Player.draw() of every player, without the message
+
+   Each player wears the four costumes that Player sets up (head, both
+   hands and body), placed from a synthetic frame's skeletons, over the
+   user's image cut out of the frame. The setup runs the frames through a
+   TrackerPanel and its Skeletons into the PlayerController, the same way
+   as the game, and then leaves the players where they are, with the
+   message they were last shown.
+
+   The throughput is in frames drawn per second. Run from the project
+   directory with the gc profiler, for the bytes allocated per frame
+   (gc.alloc.rate.norm):
+     java -jar benchmarks/target/benchmarks.jar RenderBenchmark -prof gc
+   or with the main() below.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark
+{
+	private static final int SCREEN_WIDTH = 1600, SCREEN_HEIGHT = 600;   // the game window
+
+	@Param({"1", "2", "4", "8"})
+	public int players;
+
+	private PlayerController controller;
+	private Player[] playerList;
+	private BufferedImage screen;
+	private Graphics2D g2d;
+	private Dimension size;
+
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception
+	{
+		BenchFrames frames = new BenchFrames(players, 2);
+		int width = frames.getSource().getWidth();
+		int height = frames.getSource().getHeight();
+		FakeFrameSource source = new FakeFrameSource(frames);
+		TrackerPanel trackPanel = new TrackerPanel(source, "files/Dictotor1.jpg");
+		controller = new PlayerController(width, height);
+		trackPanel.addCameraListener(controller);
+		trackPanel.addSkeletonListener(controller);
+
+		/* the first frame makes the players, which then want their images,
+		   and the second gives them their images and costume positions */
+		source.announce(frames.get(0));
+		for (int i = 0; i < frames.size(); i++) {
+			Frame frame = frames.get(i);
+			trackPanel.process(frame);
+			trackPanel.updatePlayers(frame);
+		}
+		// the images of the last frame stay with the players, so it isn't recycled
+		trackPanel.close();
+
+		playerList = controller.players.values().toArray(new Player[0]);
+		if (playerList.length != players)
+			throw new IllegalStateException(playerList.length + " players, not " + players);
+
+		screen = new BufferedImage(SCREEN_WIDTH, SCREEN_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		g2d = screen.createGraphics();
+		size = new Dimension(SCREEN_WIDTH, SCREEN_HEIGHT);
+	}  // end of setup()
+
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{  g2d.dispose();  }
+
+
+	@Benchmark
+	public BufferedImage drawAll()
+	{
+		controller.drawAll(g2d, size);
+		return screen;
+	}
+
+	@Benchmark
+	public BufferedImage drawPlayers()
+	{
+		for (Player p : playerList)
+			p.draw(g2d, size);
+		return screen;
+	}
+
+
+	public static void main(String args[]) throws RunnerException, CommandLineOptionException
+	// run these benchmarks with the gc profiler, and any JMH options given
+	{
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(RenderBenchmark.class.getName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}  // end of main()
+
+} // end of RenderBenchmark class
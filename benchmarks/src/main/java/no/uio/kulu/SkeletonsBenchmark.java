@@ -0,0 +1,175 @@
+package no.uio.kulu;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.OpenNI.Point3D;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/* SkeletonsBenchmark.java
+
+   The time Skeletons.update() takes over a frame's skeletons, with a
+   listener that only counts its calls, for 1 to 6 calibrated users.
+
+   The joints come from synthetic frames (see BenchFrames), where the
+   sensor would have filled them in; FakeFrameSource stands in for the
+   sensor's user events, so every user is calibrated before the first
+   measured frame.
+
+   The primary score is the time per frame. The "userUpdates" and
+   "listenerCalls" counters are the same time divided among the users'
+   skeletons and the listener calls, so "userUpdates" is the cost per user.
+   Run from the project directory with the gc profiler, for the bytes
+   allocated per frame (gc.alloc.rate.norm):
+     java -jar benchmarks/target/benchmarks.jar SkeletonsBenchmark -prof gc
+   or with the main() below, which also prints a table with the listener
+   calls per frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SkeletonsBenchmark
+{
+	private static final int NUM_FRAMES = 8;    // frames cycled through
+
+	@Param({"1", "2", "3", "4", "5", "6"})
+	public int users;
+
+	private BenchFrames frames;
+	private Skeletons skels;
+	private CountingListener listener;
+
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters
+	{
+		public long userUpdates;     // skeletons updated
+		public long listenerCalls;
+
+		@Setup(Level.Iteration)
+		public void reset()
+		{
+			userUpdates = 0;
+			listenerCalls = 0;
+		}
+	} // end of Counters class
+
+
+	private static class CountingListener implements SkeletonEvent
+	// counts every call into its Counters
+	{
+		Counters counters;
+
+		public void updateHeadPosition(int userID, Point3D pivot, Point3D base, int angle)
+		{  counters.listenerCalls++;  }
+
+		public void updateBodyPosition(int userID, Point3D pivot, Point3D base, int angle)
+		{  counters.listenerCalls++;  }
+
+		public void updateFeetPosition(int userID, Point3D pivot, Point3D base, int angle)
+		{  counters.listenerCalls++;  }
+
+		public void userObserved(int id)
+		{  counters.listenerCalls++;  }
+
+		public void userLost(int id)
+		{  counters.listenerCalls++;  }
+
+		public void userCalibrated(int id)
+		{  counters.listenerCalls++;  }
+
+		public void updateLeftHandPosition(int userID, Point3D pivot, Point3D base, int angle)
+		{  counters.listenerCalls++;  }
+
+		public void updateRightHandPosition(int userID, Point3D pivot, Point3D base, int angle)
+		{  counters.listenerCalls++;  }
+	} // end of CountingListener class
+
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception
+	{
+		frames = new BenchFrames(users, NUM_FRAMES);
+		Frame first = frames.get(0);
+		FakeFrameSource source = new FakeFrameSource(frames);
+		skels = new Skeletons(source);
+		listener = new CountingListener();
+		listener.counters = new Counters();    // the calls before the first iteration go nowhere
+		skels.addListener(listener);
+
+		source.announce(first);
+		skels.update(first);     // pass on the user events, so every skeleton is tracked
+		for (int i = 0; i < frames.size(); i++)
+			if (countSkeletons(frames.get(i)) != users)
+				throw new IllegalStateException("frame " + i + " doesn't have " + users + " skeletons");
+	}  // end of setup()
+
+
+	private static int countSkeletons(Frame frame)
+	{
+		int n = 0;
+		for (boolean tracked : frame.skeletonTracked)
+			if (tracked)
+				n++;
+		return n;
+	}
+
+
+	@Benchmark
+	public void update(Counters counters)
+	{
+		listener.counters = counters;
+		skels.update(frames.next());
+		counters.userUpdates += users;
+	}
+
+
+	public static void main(String args[]) throws RunnerException, CommandLineOptionException
+	// run the benchmark with the gc profiler and any JMH options given, and sum up the results per frame and user
+	{
+		Collection<RunResult> results = new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(SkeletonsBenchmark.class.getName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+
+		System.out.println();
+		System.out.println("users   us/frame   us/user   listener calls/frame   bytes/frame");
+		for (RunResult r : results) {
+			double frameTime = r.getPrimaryResult().getScore();
+			Result perUser = r.getSecondaryResults().get("userUpdates");
+			Result perCall = r.getSecondaryResults().get("listenerCalls");
+			Result alloc = r.getSecondaryResults().get("gc.alloc.rate.norm");
+			System.out.println(String.format("%5s %10.3f %9.3f %22.1f %13.0f",
+					r.getParams().getParam("users"), frameTime,
+					(perUser == null) ? Double.NaN : perUser.getScore(),
+					(perCall == null || perCall.getScore() == 0) ? Double.NaN : frameTime / perCall.getScore(),
+					(alloc == null) ? Double.NaN : alloc.getScore()));
+		}
+	}  // end of main()
+
+} // end of SkeletonsBenchmark class
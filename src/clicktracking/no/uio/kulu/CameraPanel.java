@@ -19,6 +19,8 @@ import java.nio.ByteBuffer;
 
 import javax.swing.JPanel;
 
+import no.uio.kulu.RGBConverter;
+
 import org.OpenNI.GeneralException;
 import org.OpenNI.ImageGenerator;
 
@@ -28,6 +30,9 @@ public class CameraPanel extends JPanel
 {
   // image vars
   private BufferedImage image = null;
+  private BufferedImage backImage;   // filled by update() while image is drawn
+  private final Object imageLock = new Object();  // held while image is drawn or swapped
+  private RGBConverter converter;    // shared RGB24 --> ARGB conversion
   private int imWidth, imHeight;
   private int scaledWidth, scaledHeight;
 
@@ -40,6 +45,8 @@ public class CameraPanel extends JPanel
                              int iw, int ih, double scaleFactor)
   {
     imWidth = iw; imHeight = ih;
+    converter = new RGBConverter(imWidth, imHeight);
+    backImage = converter.createImage();
 
     setBounds(0, 0, scrWidth, scrHeight);
     setPreferredSize( new Dimension(scrWidth, scrHeight));
@@ -66,7 +73,11 @@ public class CameraPanel extends JPanel
   {
     try {
       ByteBuffer imageBB = imageGen.getImageMap().createByteBuffer();
-      image = bufToImage(imageBB);
+      BufferedImage im = bufToImage(imageBB);
+      synchronized (imageLock) {   // not while paintComponent() is drawing image
+        backImage = image;    // the two images are swapped on each update
+        image = im;
+      }
       repaint();
     }
     catch (GeneralException e) {
@@ -80,35 +91,13 @@ public class CameraPanel extends JPanel
 
   private BufferedImage bufToImage(ByteBuffer pixelsRGB)
   /* Transform the ByteBuffer of pixel data into a BufferedImage
-     Converts RGB bytes to ARGB ints with no transparency.  */
+     Converts RGB bytes to ARGB ints with no transparency.
+     The pixels are written straight into the reusable back image.  */
   {
-    int[] pixelInts = new int[imWidth * imHeight];
- 
-    int rowStart = 0;
-        // rowStart will index the first byte (red) in each row;
-        // starts with first row, and moves down
-    int bbIdx;               // index into ByteBuffer
-    int i = 0;               // index into pixels int[]
-    int rowLen = imWidth * 3;    // number of bytes in each row
-    for (int row = 0; row < imHeight; row++) {
-	    bbIdx = rowStart;
-      // System.out.println("bbIdx: " + bbIdx);
-	    for (int col = 0; col < imWidth; col++) {
-	      int pixR = pixelsRGB.get( bbIdx++ );
-	      int pixG = pixelsRGB.get( bbIdx++ );
-	      int pixB = pixelsRGB.get( bbIdx++ );
-	      pixelInts[i++] = 
-	         0xFF000000 | ((pixR & 0xFF) << 16) | 
-	         ((pixG & 0xFF) << 8) | (pixB & 0xFF);
-	    }
-      rowStart += rowLen;   // move to next row
-    }
-
-    // create a BufferedImage from the pixel data
-    BufferedImage im = 
-	     new BufferedImage( imWidth, imHeight, BufferedImage.TYPE_INT_ARGB);
-    im.setRGB( 0, 0, imWidth, imHeight, pixelInts, 0, imWidth );
-    return im;
+    if (backImage == null)
+      backImage = converter.createImage();
+    converter.convert(pixelsRGB, backImage);
+    return backImage;
   }  // end of bufToImage()
 
 
@@ -118,8 +107,10 @@ public class CameraPanel extends JPanel
   // draw the scaled camera image and the message at the top-left
   { 
     super.paintComponent(g);
-    if (image != null)
-      g.drawImage(image, 0, 0, scaledWidth, scaledHeight, null);
+    synchronized (imageLock) {   // so update() doesn't start refilling it
+      if (image != null)
+        g.drawImage(image, 0, 0, scaledWidth, scaledHeight, null);
+    }
 
     // draw message
     g.setFont(font);
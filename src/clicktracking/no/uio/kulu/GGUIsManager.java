@@ -84,6 +84,13 @@ public class GGUIsManager
 	}  // end of locateComponents()
 
 
+	void setScreenRects(ArrayList<Rectangle> scrRects)
+	/* use these screen rectangles, one for each component in the order they
+     were added, instead of finding them with locateComponents(); for
+     components that are never shown */
+	{  ggScrRects = scrRects;  }
+
+
 
 	public void updateGGUIs(Point scrPt)
 	/* scrPt is a hand point defined using screen coordinates.
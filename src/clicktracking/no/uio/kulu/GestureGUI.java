@@ -9,8 +9,9 @@ import java.awt.event.ComponentListener;
 
 import javax.swing.JPanel;
 
+import no.uio.kulu.FrameSource;
+
 import org.OpenNI.Context;
-import org.OpenNI.DepthGenerator;
 import org.OpenNI.GeneralException;
 import org.OpenNI.GestureGenerator;
 import org.OpenNI.HandsGenerator;
@@ -30,14 +31,14 @@ import com.primesense.NITE.SessionManager;
 
 
 
-public class GestureGUI extends JPanel implements Runnable, ComponentListener
+public class GestureGUI extends JPanel implements Runnable, ComponentListener, FrameSource.ContextListener
 {
 
 	//OpenNI
-	private Context context;
-	private DepthGenerator depthGen;
+	private volatile Context context;   // null while the source's context is being made again
+	private FrameSource source;   // for converting real-world coords to camera coords
 	private ImageGenerator imageGen;
-	private SessionManager sessionMan;
+	private volatile SessionManager sessionMan;   // made on context
 	//Custom
 	//	private CameraPanel camPanel;
 	private GGUIsManager gguisMan;     // manager of GGUI components
@@ -48,12 +49,14 @@ public class GestureGUI extends JPanel implements Runnable, ComponentListener
 	private int scrWidth, scrHeight;     // dimensions of the screen
 	private double scaleFactor = 1.0;   // for scaling image and hand points
 
-	public GestureGUI(Context context)
+	public GestureGUI(FrameSource source)
 	{	
 		super();
-		this.context = context;
+		this.source = source;
+		this.context = source.getContext();
 
 		configKinect();
+		source.addContextListener(this);   // the hand tracking is made again with the context
 
 		makeGUI();
 
@@ -66,6 +69,10 @@ public class GestureGUI extends JPanel implements Runnable, ComponentListener
 	private void configKinect()
 	// set up OpenNI and NITE generators and listerners
 	{
+		if (context == null) {   // e.g. a synthetic scene
+			System.out.println("No OpenNI context, so no hand tracking");
+			return;
+		}
 		try {
 //			// set up image and depth generators
 //			imageGen = ImageGenerator.create(context);
@@ -82,17 +89,7 @@ public class GestureGUI extends JPanel implements Runnable, ComponentListener
 //			// set Mirror mode for all
 //			context.setGlobalMirror(true);
 
-			// set up hands and gesture generators
-			HandsGenerator hands = HandsGenerator.create(context); 
-			hands.SetSmoothing(0.1f);
-
-			GestureGenerator gesture = GestureGenerator.create(context);
-
-			// set up session manager and points listener
-			sessionMan = new SessionManager(context, "Click,Wave", "RaiseHand");
-			setSessionEvents(sessionMan);
-			
-			sessionMan.addListener( initPointControl() );			
+			makeHandTracking();
 		}
 		catch (GeneralException e) {
 			e.printStackTrace();
@@ -100,6 +97,46 @@ public class GestureGUI extends JPanel implements Runnable, ComponentListener
 		}
 	}  // end of configKinect()
 
+
+	private void makeHandTracking() throws GeneralException
+	// the hands and gesture generators and the session manager, on context
+	{
+		// set up hands and gesture generators
+		HandsGenerator hands = HandsGenerator.create(context); 
+		hands.SetSmoothing(0.1f);
+
+		GestureGenerator gesture = GestureGenerator.create(context);
+
+		// set up session manager and points listener
+		SessionManager sm = new SessionManager(context, "Click,Wave", "RaiseHand");
+		setSessionEvents(sm);
+
+		sm.addListener( initPointControl() );
+		sessionMan = sm;    // only once it's ready, as run() may use it
+	}  // end of makeHandTracking()
+
+
+	public void contextChanged(Context newContext)
+	/* the source's context is about to be released (null), or has been made
+	   again after a re-initialization: the session manager made on the old
+	   one is let go, and the hand tracking is made again on the new one */
+	{
+		SessionManager oldSessionMan = sessionMan;
+		sessionMan = null;
+		context = newContext;
+		if (oldSessionMan != null)
+			oldSessionMan.dispose();
+		if (newContext == null)
+			return;
+		try {
+			makeHandTracking();
+			System.out.println("Hand tracking made again");
+		}
+		catch (GeneralException e) {
+			System.out.println("No hand tracking after the re-initialization: " + e);
+		}
+	}  // end of contextChanged()
+
 	// --------------------Make GUI--------------------
 	private void makeGUI(){
 
@@ -136,9 +173,13 @@ public class GestureGUI extends JPanel implements Runnable, ComponentListener
 	public void run()
 	// keep updating the Kinect camera panel
 	{
+		Context ctx = context;
+		SessionManager sm = sessionMan;
+		if (ctx == null || sm == null)
+			return;
 		try {
-			context.waitAnyUpdateAll();
-			sessionMan.update(context);
+			ctx.waitAnyUpdateAll();
+			sm.update(ctx);
 		}
 		catch(StatusException e){  
 			System.out.println(e); 
@@ -215,7 +256,7 @@ public class GestureGUI extends JPanel implements Runnable, ComponentListener
 	     Point scrPt = new Point(scrWidth/2, scrHeight/2);    // default screen pos
 	     try {
 	       // convert from real-world 3D to camera coordinates
-	       Point3D projPt = depthGen.convertRealWorldToProjective(posPt);
+	       Point3D projPt = source.convertRealWorldToProjective(posPt);
 
 	       // scale to screen coordinates
 	       int xPos = (int) Math.round( projPt.getX() * scaleFactor);    
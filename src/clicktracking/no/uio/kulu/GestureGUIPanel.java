@@ -41,6 +41,7 @@ import java.io.IOException;
 import javax.imageio.ImageIO;
 import javax.swing.JPanel;
 
+import no.uio.kulu.Clock;
 import no.uio.kulu.TrackerPanel;
 
 
@@ -80,6 +81,8 @@ public class GestureGUIPanel extends JPanel
           // the coordinate system is relative to the component panel
   private long lastMovedTime = -1;
           // time when the hand point last moved in the active state
+  private Clock clock = Clock.getDefault();
+          // the dwell time is measured by this, so it can run faster than real time
 
   protected GestureGUI topLevel;   
   private boolean isPressed = false;
@@ -178,12 +181,12 @@ public class GestureGUIPanel extends JPanel
     else {    // ggui component is active
       gState = GestureState.ACTIVE;
       if (lastMovedTime == -1) {  // newly active, so restart time
-        lastMovedTime = System.currentTimeMillis();
+        lastMovedTime = clock.millis();
         isPressed = false;
         updateActive(handPt);
       }
       else {   // previously active
-        long duration = (System.currentTimeMillis() - lastMovedTime);
+        long duration = (clock.millis() - lastMovedTime);
         if (duration > STILL_TIME) {    // waited long enough?
           if (closeTo(currPoint, handPt)) {    // hand has not moved
             gState = GestureState.PRESSED;
@@ -193,14 +196,14 @@ public class GestureGUIPanel extends JPanel
             }
           }
           else {   // moved, so restart time
-            lastMovedTime = System.currentTimeMillis();
+            lastMovedTime = clock.millis();
             isPressed = false;
             updateActive(handPt);
           }
         }
         else { // not waited long enough yet
           if (!closeTo(currPoint, handPt)) {    // hand has moved, so restart time
-            lastMovedTime = System.currentTimeMillis();
+            lastMovedTime = clock.millis();
             isPressed = false;
             updateActive(handPt);
           }
@@ -0,0 +1,147 @@
+package no.uio.kulu;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* BatchProcessor.java
+
+   Runs the TrackerPanel and Skeletons processing over a directory of frame
+   recordings (as written by FrameRecorder), without a window, and writes
+   a line of SessionStats for each recording to a CSV file.
+
+   Each recording is one session, run by one thread with its own
+   RecordedFrameSource and TrackerPanel, so the sessions share nothing and
+   there is one session per core. A session's frames are taken through
+   acquire(), process() and updatePlayers() in turn, every one of them and
+   as fast as they can be read, instead of through a FramePipeline, which
+   would drop frames to keep up with the sensor.
+
+   Usage: BatchProcessor <recordings dir> [-out <csv file>] [-threads <n>]
+   A recording is a sub-directory holding segment files; the directory
+   itself is used if it is a recording.
+ */
+public class BatchProcessor
+{
+	private static final String BACKGROUND_FNM = "files/Dictotor1.jpg";
+
+
+	public static List<File> findSessions(File dir)
+	// the recordings in dir, in name order
+	{
+		List<File> sessions = new ArrayList<File>();
+		if (FrameFile.segmentFile(dir, 0).exists())
+			sessions.add(dir);
+		File[] subDirs = dir.listFiles();
+		if (subDirs != null) {
+			Arrays.sort(subDirs);
+			for (File subDir : subDirs)
+				if (subDir.isDirectory() && FrameFile.segmentFile(subDir, 0).exists())
+					sessions.add(subDir);
+		}
+		return sessions;
+	}  // end of findSessions()
+
+
+	public static SessionStats processSession(File dir) throws IOException
+	// run every frame of the recording through the processing stages
+	{
+		RecordedFrameSource source = new RecordedFrameSource(dir, 0);   // as fast as possible
+		SessionStats stats = new SessionStats(dir.getName());
+		TrackerPanel trackPanel = null;
+		try {
+			// the sessions already run one per thread, so each is processed serially
+			trackPanel = new TrackerPanel(source, BACKGROUND_FNM, new StripExecutor(false, 1));
+			trackPanel.addSkeletonListener(stats);
+			Frame frame = new Frame(source.getWidth(), source.getHeight());
+
+			long start = System.nanoTime();
+			int numFrames = source.getNumFrames();
+			for (int i = 0; i < numFrames; i++) {
+				source.waitForUpdate();
+				trackPanel.acquire(frame);
+				stats.startFrame(frame.getTimestamp());
+				trackPanel.process(frame);
+				trackPanel.updatePlayers(frame);
+				trackPanel.recycle(frame);
+			}
+			stats.finish(System.nanoTime() - start);
+		}
+		finally {
+			if (trackPanel != null)
+				trackPanel.close();
+			source.release();
+		}
+		return stats;
+	}  // end of processSession()
+
+
+	public static void main(String args[]) throws IOException, InterruptedException
+	{
+		System.setProperty("java.awt.headless", "true");
+		File dir = null;
+		File outFile = null;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-out") && i+1 < args.length)
+				outFile = new File(args[++i]);
+			else if (args[i].equals("-threads") && i+1 < args.length)
+				numThreads = Integer.parseInt(args[++i]);
+			else if (dir == null && !args[i].startsWith("-"))
+				dir = new File(args[i]);
+			else
+				dir = null;
+		}
+		if (dir == null) {
+			System.out.println("Usage: BatchProcessor <recordings dir> [-out <csv file>] [-threads <n>]");
+			System.exit(1);
+		}
+		if (outFile == null)
+			outFile = new File(dir, "sessions.csv");
+
+		List<File> sessions = findSessions(dir);
+		System.out.println("Processing " + sessions.size() + " sessions on " + numThreads + " threads");
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		List<Future<SessionStats>> results = new ArrayList<Future<SessionStats>>();
+		for (final File session : sessions)
+			results.add(pool.submit(new Callable<SessionStats>() {
+				public SessionStats call() throws IOException
+				{  return processSession(session);  }
+			}));
+		pool.shutdown();
+
+		long start = System.nanoTime();
+		double recordedSecs = 0;
+		PrintWriter out = new PrintWriter(new FileWriter(outFile));
+		try {
+			out.println(SessionStats.CSV_HEADER);
+			for (int i = 0; i < sessions.size(); i++) {
+				try {
+					SessionStats stats = results.get(i).get();
+					System.out.println(stats);
+					out.println(stats.toCsv());
+					recordedSecs += stats.getRecordedSeconds();
+				}
+				catch (ExecutionException e) {
+					System.out.println(sessions.get(i) + ": " + e.getCause());
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%.1f s of sessions in %.1f s (%.1fx real time); wrote %s",
+				recordedSecs, secs, (secs > 0) ? recordedSecs / secs : 0.0, outFile));
+	}  // end of main()
+
+} // end of BatchProcessor class
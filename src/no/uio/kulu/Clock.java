@@ -0,0 +1,76 @@
+package no.uio.kulu;
+
+/* Clock.java
+
+   The time as seen by everything whose behaviour depends on it: the dwell
+   timers of the gesture GUI panels, the skeleton event log, and the
+   pacing of the synthetic and recorded frame sources.
+   Measurements of the program's own speed (frame latency, processing
+   time) are not behaviour, and stay on System.nanoTime().
+
+   The default clock is the system clock. Main's -virtual-clock option
+   makes it a VirtualClock, which follows the timestamps of the frames
+   instead, so a simulation or recording runs as fast as it can be
+   processed and still behaves as it would in real time. Components take
+   the default clock when they are created, so it must be set first.
+   The FramePipeline drops no frames under a virtual clock, and the clock
+   is moved on by the skeleton update stage, so the game sees every frame
+   at its own time.
+ */
+public abstract class Clock
+{
+	public static final Clock SYSTEM = new SystemClock();
+
+	private static volatile Clock defaultClock = SYSTEM;
+
+
+	public static Clock getDefault()
+	{  return defaultClock;  }
+
+	public static void setDefault(Clock clock)
+	{  defaultClock = (clock == null) ? SYSTEM : clock;  }
+
+
+	/* the time in nanoseconds; like System.nanoTime(), only the difference
+	   between two times means anything */
+	public abstract long nanoTime();
+
+	public long millis()
+	{  return nanoTime() / 1000000;  }
+
+
+	/* wait until the clock reaches time (in nanoTime() terms) */
+	public abstract void sleepUntil(long time) throws InterruptedException;
+
+
+	/* told the sensor timestamp (microseconds) of each frame or event as the
+	   game gets to it; the system clock ignores it */
+	public void sensorTime(long micros)
+	{}
+
+
+	/* whether the clock runs by itself, and sleepUntil() waits for it. The
+	   frame sources don't wait on a clock that doesn't, so the FramePipeline
+	   keeps every frame instead of dropping the ones it can't keep up with */
+	public boolean isRealTime()
+	{  return true;  }
+
+
+
+	private static class SystemClock extends Clock
+	{
+		public long nanoTime()
+		{  return System.nanoTime();  }
+
+		public void sleepUntil(long time) throws InterruptedException
+		{
+			long wait = time - System.nanoTime();
+			if (wait > 0)
+				Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+		}
+
+		public String toString()
+		{  return "system clock";  }
+	}  // end of SystemClock class
+
+} // end of Clock class
@@ -0,0 +1,201 @@
+package no.uio.kulu;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/* DepthView.java
+
+   Debug layer showing the depth map, with each user in their own colour.
+
+   The depth values are histogram-equalised, so near pixels are bright and
+   far pixels dark, and each pixel's brightness is applied to the colour of
+   the user it belongs to (white for the background). Instead of
+   multiplying the colour components per pixel, the packed ARGB value of
+   every (brightness level, colour) pair is precomputed in a lookup table,
+   and a pixel is a single table lookup. The histogram is only built from
+   every GRID_STEP'th pixel of every GRID_STEP'th row, which is plenty for
+   the equalisation. The user colours come from the frame's label runs, so
+   the label map itself isn't read. Both the histogram and the colouring
+   are split into strips of rows by the panel's StripExecutor; each strip
+   counts into its own histogram, and the strips' counts are added up
+   afterwards.
+
+   Nothing is computed unless update() is called, which the TrackerPanel
+   only does while the layer is shown.
+ */
+public class DepthView
+{
+	private static final int MAX_DEPTH_SIZE = 10000;   // depth values (mm) at or beyond this are ignored
+	private static final int NUM_LEVELS = 256;         // brightness levels in the lookup table
+	private static final int GRID_STEP = 4;            // the histogram samples every 4th pixel and row
+
+	private static final Color USER_COLORS[] = {
+			Color.RED, Color.BLUE, Color.CYAN, Color.GREEN,
+			Color.MAGENTA, Color.PINK, Color.YELLOW, Color.WHITE};
+	/* colors used to draw each user's depth image, except the last
+             (white) which is for the background */
+
+	private final int width, height;
+
+	private StripExecutor strips;
+	private int[] lut;          // ARGB pixel for each colour, then brightness level
+	private int[][] stripCounts;   // sampled depth counts of each strip
+	private int[] stripPoints;     // number of depth values sampled in each strip
+	private int[] stripMaxDepths;  // largest depth sampled in each strip
+	private byte[] levels = new byte[1 << 16];    // brightness level for each depth value
+	private int maxLevelDepth;  // largest depth with a non-zero level in levels[]
+
+	/* drawn into the back image, then swapped, so the event dispatch thread
+	   always sees a complete image; image is volatile to publish the swap */
+	private volatile BufferedImage image;
+	private BufferedImage backImage;
+
+
+	public DepthView(int width, int height, StripExecutor strips)
+	{
+		this.width = width;
+		this.height = height;
+		this.strips = strips;
+		int numStrips = strips.getNumStrips();
+		stripCounts = new int[numStrips][MAX_DEPTH_SIZE];
+		stripPoints = new int[numStrips];
+		stripMaxDepths = new int[numStrips];
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		backImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+		lut = new int[USER_COLORS.length * NUM_LEVELS];
+		for (int c = 0; c < USER_COLORS.length; c++) {
+			Color col = USER_COLORS[c];
+			for (int level = 0; level < NUM_LEVELS; level++) {
+				// level 0 is also used for 'no depth data', which is black
+				int r = col.getRed() * level / (NUM_LEVELS-1);
+				int g = col.getGreen() * level / (NUM_LEVELS-1);
+				int b = col.getBlue() * level / (NUM_LEVELS-1);
+				lut[c*NUM_LEVELS + level] = 0xFF000000 | (r << 16) | (g << 8) | b;
+			}
+		}
+	} // end of DepthView()
+
+
+	public void update(final Frame frame)
+	// draw the frame's depth map into the layer's image
+	{
+		calcLevels(frame.depth);
+
+		final int[] pixels = FrameBufferPool.getPixels(backImage);
+		strips.run(height, new StripExecutor.StripTask() {
+			public void run(int strip, int firstRow, int endRow)
+			{  colourRows(frame, pixels, firstRow, endRow);  }
+		});
+
+		BufferedImage im = image;
+		image = backImage;
+		backImage = im;
+	} // end of update()
+
+
+	private void colourRows(Frame frame, int[] pixels, int firstRow, int endRow)
+	// colour rows firstRow to endRow-1 by their label runs
+	{
+		short[] depth = frame.depth;
+		LabelRuns runs = frame.labelRuns;
+		int[] rowRuns = runs.rowRuns, starts = runs.starts, lengths = runs.lengths;
+		short[] users = runs.users;
+		int bgRow = colourIndex(0) * NUM_LEVELS;
+		for (int y = firstRow; y < endRow; y++) {
+			int pos = y*width;
+			int rowEnd = pos + width;
+			for (int r = rowRuns[y]; r < rowRuns[y+1]; r++) {
+				int runStart = y*width + starts[r];
+				colourSpan(depth, pixels, pos, runStart, bgRow);   // background before the run
+				pos = runStart + lengths[r];
+				colourSpan(depth, pixels, runStart, pos, colourIndex(users[r]) * NUM_LEVELS);
+			}
+			colourSpan(depth, pixels, pos, rowEnd, bgRow);
+		}
+	} // end of colourRows()
+
+
+	private void colourSpan(short[] depth, int[] pixels, int pos, int end, int lutRow)
+	// colour pixels pos to end-1 with the lookup table row of one colour
+	{
+		for (; pos < end; pos++)
+			pixels[pos] = lut[lutRow + (levels[depth[pos] & 0xFFFF] & 0xFF)];
+	}
+
+
+	private void calcLevels(final short[] depth)
+	/* Build the depth histogram from the sample grid, and turn it into the
+	   brightness level of each depth value. A level is 1 minus the fraction
+	   of samples at or in front of that depth, so the nearest pixels are the
+	   brightest; depth 0 (no data) and depths beyond the deepest sample get
+	   level 0.
+	 */
+	{
+		strips.run(height, new StripExecutor.StripTask() {
+			public void run(int strip, int firstRow, int endRow)
+			{  countDepths(depth, strip, firstRow, endRow);  }
+		});
+
+		// add up the strips' counts
+		int numPoints = 0;
+		int maxDepth = 0;
+		for (int s = 0; s < stripCounts.length; s++) {
+			numPoints += stripPoints[s];
+			maxDepth = Math.max(maxDepth, stripMaxDepths[s]);
+		}
+
+		levels[0] = 0;
+		int cumulative = 0;
+		for (int i = 1; i <= maxDepth; i++) {
+			for (int s = 0; s < stripCounts.length; s++)
+				cumulative += stripCounts[s][i];
+			levels[i] = (byte) ((NUM_LEVELS-1) - (long) (NUM_LEVELS-1) * cumulative / numPoints);
+		}
+		// clear the levels left over from a deeper frame
+		if (maxLevelDepth > maxDepth)
+			Arrays.fill(levels, maxDepth+1, maxLevelDepth+1, (byte) 0);
+		maxLevelDepth = maxDepth;
+	} // end of calcLevels()
+
+
+	private void countDepths(short[] depth, int strip, int firstRow, int endRow)
+	// count the depths of the sample grid in rows firstRow to endRow-1 in the strip's histogram
+	{
+		int[] counts = stripCounts[strip];
+		Arrays.fill(counts, 0, stripMaxDepths[strip]+1, 0);   // only the last frame's depths were counted
+		int numPoints = 0;
+		int maxDepth = 0;
+		int firstSampleRow = (firstRow + GRID_STEP-1) / GRID_STEP * GRID_STEP;
+		for (int y = firstSampleRow; y < endRow; y += GRID_STEP) {
+			int rowEnd = (y+1) * width;
+			for (int pos = y*width; pos < rowEnd; pos += GRID_STEP) {
+				int depthVal = depth[pos] & 0xFFFF;
+				if ((depthVal > 0) && (depthVal < MAX_DEPTH_SIZE)) {   // skip counts[0]
+					counts[depthVal]++;
+					numPoints++;
+					if (depthVal > maxDepth)
+						maxDepth = depthVal;
+				}
+			}
+		}
+		stripPoints[strip] = numPoints;
+		stripMaxDepths[strip] = maxDepth;
+	} // end of countDepths()
+
+
+	private static int colourIndex(int userID)
+	// each user has a colour from USER_COLORS[]; the background is white
+	{
+		if (userID <= 0)    // not a user; actually the background
+			return USER_COLORS.length-1;
+		return userID % (USER_COLORS.length-1);   // skip last color
+	}
+
+
+	public BufferedImage getImage()
+	// the depth image drawn by the last update()
+	{  return image;  }
+
+} // end of DepthView class
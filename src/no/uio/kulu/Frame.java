@@ -0,0 +1,110 @@
+package no.uio.kulu;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.OpenNI.SkeletonJoint;
+
+/* Frame.java
+
+   One sensor update travelling through the FramePipeline.
+
+   The depth map, the user label map, the RGB image and the skeleton joints
+   are copied out of the FrameSource when the frame is acquired, because
+   OpenNI overwrites its buffers on the next context update. The later
+   stages add their results (e.g. the per-user images) to the same object.
+
+   Frames are recycled by the pipeline, so a stage must not hold on to a
+   frame after passing it on. A frame that is also being recorded is only
+   recycled once the recorder has released it too.
+ */
+public class Frame
+{
+	static final int MAX_USERS = 10;   // size of the per-user arrays; user IDs start at 1
+	static final int NUM_JOINTS = SkeletonJoint.values().length;
+	static final float NO_JOINT = -1;   // the confidence of a joint that wasn't read
+
+	private final int width, height;
+
+	int frameId;         // the sensor's frame ID of the depth map
+	long timestamp;      // the sensor's timestamp of the depth map (microseconds)
+	int rgbFrameId;      // the same for the RGB image; the depth map's if there isn't one
+	long rgbTimestamp;
+	long acquiredNanos;  // System.nanoTime() when the frame was acquired
+	boolean isValid = true;   // false if the source had no whole frame to copy; the frame is skipped
+
+	final short[] depth;   // depth value for each pixel (mm), 0 for no data
+	final short[] labels;  // user ID for each pixel, 0 for background
+	final LabelRuns labelRuns;  // the user runs of labels, encoded at the start of processing
+	final byte[] rgb;      // RGB24 camera image, 3 bytes per pixel
+	int[] trackedUsers = new int[0];   // IDs of the users the sensor is tracking
+	final boolean[] skeletonTracked = new boolean[MAX_USERS];   // users with joints in this frame
+	// projective joint positions and their confidence, by user ID and joint ordinal
+	final float[][] jointX, jointY, jointZ, jointConfidence;
+
+	BufferedImage[] userImages; // the pooled user images built for this frame, indexed by user ID
+	Rectangle[] userBounds;     // bounding box of each user in the label map
+	BufferedImage[] retiredImages; // images replaced by this frame's, freed once it's drawn
+	Rectangle[] retiredBounds;     // the area of each retired image that was drawn into
+
+	final AtomicInteger refs = new AtomicInteger();   // the pipeline stages and recorder using the frame
+
+
+	public Frame(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		depth = new short[width * height];
+		labels = new short[width * height];
+		labelRuns = new LabelRuns(width, height);
+		rgb = new byte[width * height * 3];
+		jointX = new float[MAX_USERS][NUM_JOINTS];
+		jointY = new float[MAX_USERS][NUM_JOINTS];
+		jointZ = new float[MAX_USERS][NUM_JOINTS];
+		jointConfidence = new float[MAX_USERS][NUM_JOINTS];
+		for (int i = 0; i < MAX_USERS; i++)
+			clearJoints(i);
+	} // end of Frame()
+
+
+	void clearJoints(int userID)
+	// mark all the user's joints as not read
+	{  Arrays.fill(jointConfidence[userID], NO_JOINT);  }
+
+	void setJoint(int userID, int joint, float x, float y, float z, float confidence)
+	{
+		jointX[userID][joint] = x;
+		jointY[userID][joint] = y;
+		jointZ[userID][joint] = z;
+		jointConfidence[userID][joint] = confidence;
+	}
+
+	boolean hasJoint(int userID, int joint)
+	{  return jointConfidence[userID][joint] >= 0;  }
+
+
+	public int getWidth()
+	{  return width;  }
+
+	public int getHeight()
+	{  return height;  }
+
+	public int getFrameId()
+	{  return frameId;  }
+
+	public long getTimestamp()
+	{  return timestamp;  }
+
+	public int getRGBFrameId()
+	{  return rgbFrameId;  }
+
+	public long getRGBTimestamp()
+	{  return rgbTimestamp;  }
+
+	public double getAgeMillis()
+	// how long ago the frame was acquired, in milliseconds
+	{  return (System.nanoTime() - acquiredNanos) / 1e6;  }
+
+} // end of Frame class
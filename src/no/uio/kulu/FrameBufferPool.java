@@ -0,0 +1,90 @@
+package no.uio.kulu;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* FrameBufferPool.java
+
+   Reusable full-frame buffers for the TrackerPanel hot path.
+
+   Hands out TYPE_INT_ARGB images of the sensor's frame size, and takes
+   them back once they are no longer used. An image is only allocated when
+   the pool is empty, so once the pipeline has warmed up a frame doesn't
+   allocate any images at all. The hit/miss counts show how often a request
+   was served from the pool.
+
+   The pool is used by several pipeline stages, so it is thread-safe.
+ */
+public class FrameBufferPool
+{
+	private static final int MAX_POOLED = 64;  // images kept for reuse
+
+	private final int width, height;
+
+	private BlockingQueue<BufferedImage> images = new ArrayBlockingQueue<BufferedImage>(MAX_POOLED);
+
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+
+
+	public FrameBufferPool(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+	}
+
+
+	public BufferedImage takeImage()
+	// check out a TYPE_INT_ARGB image of width x height pixels; it is always fully transparent
+	{
+		BufferedImage image = images.poll();
+		if (image == null) {
+			misses.incrementAndGet();
+			return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		}
+		hits.incrementAndGet();
+		return image;
+	}  // end of takeImage()
+
+
+	public void giveImage(BufferedImage image, Rectangle drawn)
+	/* return an image to the pool; drawn is the only area of the image that
+	   may hold non-transparent pixels, or null for the whole image. It is
+	   cleared here, so the pool only holds transparent images */
+	{
+		if (image == null || image.getWidth() != width || image.getHeight() != height)
+			return;
+		int[] pixels = getPixels(image);
+		if (drawn == null)
+			Arrays.fill(pixels, 0);
+		else {
+			int x0 = Math.max(drawn.x, 0), x1 = Math.min(drawn.x + drawn.width, width);
+			int y0 = Math.max(drawn.y, 0), y1 = Math.min(drawn.y + drawn.height, height);
+			for (int y = y0; y < y1 && x0 < x1; y++)
+				Arrays.fill(pixels, y*width + x0, y*width + x1, 0);
+		}
+		images.offer(image);   // dropped if the pool is full
+	}  // end of giveImage()
+
+
+	public static int[] getPixels(BufferedImage image)
+	/* the pixel array backing an image handed out by this pool, so it can be
+	   written directly instead of being copied in with setRGB() */
+	{  return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();  }
+
+
+	public long getHits()
+	{  return hits.get();  }
+
+	public long getMisses()
+	{  return misses.get();  }
+
+	public String toString()
+	{  return "buffer pool hits/misses: " + getHits() + "/" + getMisses();  }
+
+} // end of FrameBufferPool class
@@ -0,0 +1,182 @@
+package no.uio.kulu;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/* FrameFile.java
+
+   The layout of a raw frame recording, shared by FrameRecorder and
+   RecordedFrameSource. The frame records are also used by FrameRing.
+
+   A recording is a directory of segment files, segment-000.kfr,
+   segment-001.kfr, ..., each holding up to FRAMES_PER_SEGMENT frames.
+   Every frame of a recording has the same size, so frame i of a segment
+   starts at SEGMENT_HEADER + i*frameBytes and the files can be memory-mapped
+   and indexed directly. All values are little-endian.
+
+   Segment header (SEGMENT_HEADER bytes):
+     long   SEGMENT_MAGIC
+     int    VERSION
+     int    width, height
+     int    frameBytes
+     int    number of frames written (updated after each frame)
+
+   Frame (frameBytes bytes, a multiple of 8):
+     header (FRAME_HEADER bytes):
+       int    FRAME_MAGIC
+       int    frame ID
+       long   timestamp (microseconds)
+       int    number of tracked users, n
+       int[MAX_USERS-1]  tracked user IDs, the first n used
+       int    bit mask of the users with a tracked skeleton (bit = user ID)
+       int    RGB timestamp - depth timestamp (microseconds); the RGB
+              frame ID isn't kept, and is taken to be the depth frame's
+     joints: for each user ID < MAX_USERS and each joint ordinal,
+       float x, y, z (projective), confidence; confidence < 0 for no joint
+     short[width*height]   depth map
+     short[width*height]   label map
+     byte[width*height*3]  RGB image
+ */
+final class FrameFile
+{
+	static final long SEGMENT_MAGIC = 0x31434552554C554BL;   // "KULUREC1"
+	static final int FRAME_MAGIC = 0x4D52464B;               // "KFRM"
+	static final int VERSION = 1;
+	static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	static final int SEGMENT_HEADER = 64;
+	static final int FRAME_HEADER = 64;
+	static final int JOINT_BYTES = 16;
+	static final int FRAMES_PER_SEGMENT = 128;   // about 275 MB per segment at 640x480
+
+	// offsets in a segment header
+	static final int SEG_WIDTH = 12, SEG_HEIGHT = 16, SEG_FRAME_BYTES = 20, SEG_NUM_FRAMES = 24;
+
+	// offsets in a frame header
+	static final int FRM_ID = 4, FRM_TIMESTAMP = 8, FRM_NUM_USERS = 16, FRM_USERS = 20;
+	static final int FRM_SKELETONS = FRM_USERS + 4*(Frame.MAX_USERS-1);
+	static final int FRM_RGB_SKEW = FRM_SKELETONS + 4;
+
+	static final int JOINTS_OFFSET = FRAME_HEADER;
+	static final int DEPTH_OFFSET = JOINTS_OFFSET + Frame.MAX_USERS * Frame.NUM_JOINTS * JOINT_BYTES;
+
+	private FrameFile() {}
+
+
+	static int labelsOffset(int width, int height)
+	{  return DEPTH_OFFSET + 2*width*height;  }
+
+	static int rgbOffset(int width, int height)
+	{  return labelsOffset(width, height) + 2*width*height;  }
+
+	static int frameBytes(int width, int height)
+	{
+		int bytes = rgbOffset(width, height) + 3*width*height;
+		return (bytes + 7) & ~7;    // keep each frame 8-byte aligned
+	}
+
+	static File segmentFile(File dir, int segment)
+	{  return new File(dir, String.format("segment-%03d.kfr", segment));  }
+
+
+	static ByteBuffer slice(ByteBuffer buf, int offset, int length)
+	// a little-endian buffer over length bytes of buf from offset
+	{
+		ByteBuffer b = buf.duplicate();
+		b.position(offset);
+		b.limit(offset + length);
+		return b.slice().order(ORDER);
+	}
+
+
+	static void writeFrame(ByteBuffer rec, Frame frame)
+	/* write the frame as a record at the start of rec, which must have
+	   room for frameBytes() of the frame's size */
+	{
+		int width = frame.getWidth(), height = frame.getHeight();
+		rec.putInt(0, FRAME_MAGIC);
+		rec.putInt(FRM_ID, frame.frameId);
+		rec.putLong(FRM_TIMESTAMP, frame.timestamp);
+		long skew = frame.rgbTimestamp - frame.timestamp;
+		rec.putInt(FRM_RGB_SKEW, (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, skew)));
+
+		int numUsers = Math.min(frame.trackedUsers.length, Frame.MAX_USERS-1);
+		rec.putInt(FRM_NUM_USERS, numUsers);
+		for (int i = 0; i < Frame.MAX_USERS-1; i++)
+			rec.putInt(FRM_USERS + 4*i, (i < numUsers) ? frame.trackedUsers[i] : 0);
+
+		int skeletons = 0;
+		int pos = JOINTS_OFFSET;
+		for (int userID = 0; userID < Frame.MAX_USERS; userID++) {
+			boolean tracked = frame.skeletonTracked[userID];
+			if (tracked)
+				skeletons |= 1 << userID;
+			for (int j = 0; j < Frame.NUM_JOINTS; j++, pos += JOINT_BYTES) {
+				if (!tracked || !frame.hasJoint(userID, j)) {
+					rec.putFloat(pos + 12, -1);
+					continue;
+				}
+				rec.putFloat(pos, frame.jointX[userID][j]);
+				rec.putFloat(pos + 4, frame.jointY[userID][j]);
+				rec.putFloat(pos + 8, frame.jointZ[userID][j]);
+				rec.putFloat(pos + 12, frame.jointConfidence[userID][j]);
+			}
+		}
+		rec.putInt(FRM_SKELETONS, skeletons);
+
+		rec.position(DEPTH_OFFSET);
+		rec.asShortBuffer().put(frame.depth);
+		rec.position(labelsOffset(width, height));
+		rec.asShortBuffer().put(frame.labels);
+		rec.position(rgbOffset(width, height));
+		rec.put(frame.rgb);
+	}  // end of writeFrame()
+
+
+	static void readFrame(ByteBuffer rec, Frame frame)
+	/* copy a frame record into the frame, which must be the size it was
+	   recorded at; the maps are bulk copies straight out of rec */
+	{
+		int width = frame.getWidth(), height = frame.getHeight();
+		rec = rec.duplicate().order(ORDER);    // for its own position
+		frame.frameId = rec.getInt(FRM_ID);
+		frame.timestamp = rec.getLong(FRM_TIMESTAMP);
+		frame.rgbFrameId = frame.frameId;
+		frame.rgbTimestamp = frame.timestamp + rec.getInt(FRM_RGB_SKEW);   // 0 in older recordings
+		frame.acquiredNanos = System.nanoTime();
+
+		// clamped as in writeFrame(), so a damaged record can't run past the user list
+		int numUsers = Math.max(0, Math.min(rec.getInt(FRM_NUM_USERS), Frame.MAX_USERS-1));
+		if (frame.trackedUsers.length != numUsers)
+			frame.trackedUsers = new int[numUsers];
+		for (int i = 0; i < numUsers; i++)
+			frame.trackedUsers[i] = rec.getInt(FRM_USERS + 4*i);
+
+		int skeletons = rec.getInt(FRM_SKELETONS);
+		int pos = JOINTS_OFFSET;
+		for (int userID = 0; userID < Frame.MAX_USERS; userID++) {
+			boolean tracked = (skeletons & (1 << userID)) != 0;
+			frame.skeletonTracked[userID] = tracked;
+			if (!tracked) {
+				pos += Frame.NUM_JOINTS * JOINT_BYTES;
+				continue;
+			}
+			frame.clearJoints(userID);
+			for (int j = 0; j < Frame.NUM_JOINTS; j++, pos += JOINT_BYTES) {
+				float confidence = rec.getFloat(pos + 12);
+				if (confidence >= 0)
+					frame.setJoint(userID, j, rec.getFloat(pos), rec.getFloat(pos + 4),
+							rec.getFloat(pos + 8), confidence);
+			}
+		}
+
+		rec.position(DEPTH_OFFSET);
+		rec.asShortBuffer().get(frame.depth);
+		rec.position(labelsOffset(width, height));
+		rec.asShortBuffer().get(frame.labels);
+		rec.position(rgbOffset(width, height));
+		rec.get(frame.rgb);
+	}  // end of readFrame()
+
+} // end of FrameFile class
@@ -0,0 +1,383 @@
+package no.uio.kulu;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* FramePipeline.java
+
+   Splits the per-frame work of the TrackerPanel into four stages that run
+   concurrently, so frame N+1 can be acquired while frame N is still being
+   processed:
+
+     acquire  --> label/RGB processing --> skeleton/costume update --> render
+     (caller)        (own thread)              (own thread)           (own thread)
+
+   The acquire stage is run by the caller (Main's sensor loop) right after a
+   context update. It copies the sensor buffers into a free Frame and hands it
+   on.
+
+   Every hand-off keeps only the newest frame, so the sensor loop never
+   waits and the display never works through a backlog of old frames. If
+   processing or the skeleton update hasn't taken the previous frame yet,
+   that frame is dropped, and the images built for it go back to the pool.
+   The render stage takes the newest of the frames waiting for it, and
+   drops the older ones once it has drawn that; their images may still
+   have been on the screen until then.
+
+   Under a clock that isn't real time (see Clock) the frame sources don't
+   wait between frames, so dropping frames would leave the game with only
+   a few of them. The hand-offs then keep every frame, and a stage waits
+   for the next one to take its frame.
+
+   Every frame carries the sensor's frame ID, so the pipeline can count the
+   frames the sensor produced that were never acquired (gaps in the IDs),
+   the frames dropped from the hand-offs, and the frames that were already
+   LATE_FRAMES or more frames behind the newest one when they were drawn.
+   A SensorHealthMonitor keeps the sensor's recent rates and timing.
+
+   While recording, each acquired frame (including the ones later dropped)
+   is also queued for the FrameRecorder's thread. A frame is reference
+   counted, and goes back to the free frames once both the last stage and
+   the recorder have released it.
+ */
+public class FramePipeline {
+
+	private static final int QUEUE_SIZE = 2;   // max. frames waiting to be rendered
+	private static final int LATE_FRAMES = 2;  // a frame this many sensor frames behind when drawn is late
+
+	private TrackerPanel trackPanel;
+	private boolean keepsAll;   // no frames are dropped, since the clock isn't real time
+
+	private BlockingQueue<Frame> freeFrames;   // frames ready to be filled
+	private BlockingQueue<Frame> acquired;     // acquire --> processing; only the newest frame
+	private BlockingQueue<Frame> processed;    // processing --> skeleton update; only the newest frame
+	private BlockingQueue<Frame> updated;      // skeleton update --> render, which takes the newest
+	private volatile FrameRecorder recorder;   // null when not recording
+
+	private Thread[] stageThreads;
+	private volatile boolean isRunning;
+
+	// frame statistics
+	private volatile int newestFrameId = -1;   // sensor frame ID of the last frame acquired
+	private volatile long firstTimestamp = -1, newestTimestamp;   // sensor timestamps (microseconds)
+	private volatile int firstFrameId;
+	private volatile long startNanos;
+	private AtomicLong numAcquired = new AtomicLong();
+	private AtomicLong numSkipped = new AtomicLong();   // produced by the sensor but never acquired
+	private AtomicLong numDropped = new AtomicLong();   // acquired but passed over for a newer frame
+	private AtomicLong numShown = new AtomicLong();
+	private AtomicLong numLate = new AtomicLong();
+	private volatile double latencyMillis;   // acquire to drawn, for the last frame shown
+	private SensorHealthMonitor health = new SensorHealthMonitor();
+
+
+	public FramePipeline(TrackerPanel trackPanel)
+	{
+		this.trackPanel = trackPanel;
+		keepsAll = !Clock.getDefault().isRealTime();
+
+		acquired = new ArrayBlockingQueue<Frame>(1);
+		processed = new ArrayBlockingQueue<Frame>(1);
+		updated = new ArrayBlockingQueue<Frame>(QUEUE_SIZE);
+
+		/* enough frames to fill every queue, keep each stage busy, hold the
+		   frames the render stage passed over, and record */
+		int numFrames = 2 + 2*QUEUE_SIZE + 4 + FrameRecorder.QUEUE_SIZE;
+		freeFrames = new ArrayBlockingQueue<Frame>(numFrames);
+		for (int i = 0; i < numFrames; i++)
+			freeFrames.add(new Frame(trackPanel.getImageWidth(), trackPanel.getImageHeight()));
+	} // end of FramePipeline()
+
+
+	public void start()
+	{
+		isRunning = true;
+		startNanos = System.nanoTime();
+		stageThreads = new Thread[] {
+				new Thread(new Stage(acquired, processed) {
+					void run(Frame frame) { trackPanel.process(frame); }
+				}, "Frame processing"),
+				new Thread(new Stage(processed, updated) {
+					void run(Frame frame) { trackPanel.updatePlayers(frame); }
+				}, "Skeleton update"),
+				new Thread(new RenderStage(), "Render")
+		};
+		for (Thread t : stageThreads) {
+			t.setDaemon(true);
+			t.start();
+		}
+	} // end of start()
+
+
+	public void stop()
+	{
+		isRunning = false;
+		if (stageThreads != null)
+			for (Thread t : stageThreads)
+				t.interrupt();
+		stopRecording();
+	} // end of stop()
+
+
+	public void startRecording(File dir) throws IOException
+	/* record every acquired frame to the directory, see FrameFile */
+	{
+		stopRecording();
+		recorder = new FrameRecorder(dir, trackPanel.getImageWidth(),
+				trackPanel.getImageHeight(), this);
+	} // end of startRecording()
+
+
+	public void stopRecording()
+	{
+		FrameRecorder rec = recorder;
+		if (rec != null) {
+			recorder = null;
+			rec.close();
+		}
+	} // end of stopRecording()
+
+
+	public boolean isRecording()
+	{  return recorder != null;  }
+
+
+	public void acquire() throws InterruptedException
+	/* called by the sensor loop after each context update; copies the
+	   sensor data into a free frame and hands it to the processing stage,
+	   replacing any frame that is still waiting there. A frame the source
+	   couldn't copy is put straight back. */
+	{
+		Frame frame = freeFrames.take();
+		frame.refs.set(1);
+		trackPanel.acquire(frame);
+		if (!frame.isValid) {
+			release(frame);
+			return;
+		}
+		frameAcquired(frame);
+
+		FrameRecorder rec = recorder;
+		if (rec != null) {
+			frame.refs.incrementAndGet();
+			if (!rec.record(frame))
+				release(frame);
+		}
+
+		handOff(frame, acquired);
+	} // end of acquire()
+
+
+	private void handOff(Frame frame, BlockingQueue<Frame> queue) throws InterruptedException
+	/* put the frame in a hand-off that holds only the newest frame, dropping
+	   any frame still waiting there. Each hand-off has only one producer, so
+	   the put() can't block then. If every frame is kept, it waits instead. */
+	{
+		Frame stale = keepsAll ? null : queue.poll();
+		if (stale != null) {
+			numDropped.incrementAndGet();
+			if (queue == processed)
+				trackPanel.discard(stale);   // its images were never sent to anyone
+			release(stale);
+		}
+		queue.put(frame);
+	} // end of handOff()
+
+
+	void release(Frame frame)
+	// recycle the frame once nothing uses it
+	{
+		if (frame.refs.decrementAndGet() == 0)
+			freeFrames.offer(frame);   // there is always room for every frame
+	} // end of release()
+
+
+	private void frameAcquired(Frame frame)
+	{
+		numAcquired.incrementAndGet();
+		if (firstTimestamp < 0) {
+			firstFrameId = frame.frameId;
+			firstTimestamp = frame.timestamp;
+		}
+		else {
+			int gap = frame.frameId - newestFrameId;
+			if (gap > 1)
+				numSkipped.addAndGet(gap - 1);
+			else if (gap < 0) {   // the IDs restart when a recording loops
+				firstFrameId = frame.frameId;
+				firstTimestamp = frame.timestamp;
+			}
+		}
+		newestFrameId = frame.frameId;
+		newestTimestamp = frame.timestamp;
+		health.frameAcquired(frame);
+	} // end of frameAcquired()
+
+
+	private void frameShown(Frame frame)
+	{
+		numShown.incrementAndGet();
+		latencyMillis = frame.getAgeMillis();
+		if (newestFrameId - frame.frameId >= LATE_FRAMES)
+			numLate.incrementAndGet();
+	} // end of frameShown()
+
+
+	// --------------- queue depths ----------------------------
+
+	public int getAcquiredDepth()
+	{  return acquired.size();  }
+
+	public int getProcessedDepth()
+	{  return processed.size();  }
+
+	public int getUpdatedDepth()
+	{  return updated.size();  }
+
+	public int getFreeFrames()
+	{  return freeFrames.size();  }
+
+
+	// --------------- frame statistics ----------------------------
+
+	public SensorHealthMonitor getHealthMonitor()
+	/* the rates, gaps, jitter and depth/RGB skew of the recent frames */
+	{  return health;  }
+
+	public long getNumAcquired()
+	{  return numAcquired.get();  }
+
+	public long getNumSkipped()
+	/* frames the sensor produced while the sensor loop was busy */
+	{  return numSkipped.get();  }
+
+	public long getNumDropped()
+	/* frames acquired but passed over for a newer one before they were drawn */
+	{  return numDropped.get();  }
+
+	public long getNumShown()
+	{  return numShown.get();  }
+
+	public long getNumLate()
+	{  return numLate.get();  }
+
+	public double getLatencyMillis()
+	{  return latencyMillis;  }
+
+	public double getSensorRate()
+	/* frames per second produced by the sensor, from its frame IDs and timestamps */
+	{
+		long micros = newestTimestamp - firstTimestamp;
+		if (firstTimestamp < 0 || micros <= 0)
+			return 0;
+		return (newestFrameId - firstFrameId) * 1e6 / micros;
+	}
+
+	public double getShownRate()
+	/* frames per second that made it through the whole pipeline */
+	{
+		long nanos = System.nanoTime() - startNanos;
+		return (nanos <= 0) ? 0 : numShown.get() * 1e9 / nanos;
+	}
+
+	public String toString()
+	{
+		return String.format("sensor %.1f fps, shown %.1f fps; frames acquired %d, skipped %d, "
+				+ "dropped %d, shown %d, late %d; latency %.1f ms; "
+				+ "queues processed/updated: %d/%d, free frames: %d%s",
+				getSensorRate(), getShownRate(), getNumAcquired(), getNumSkipped(),
+				getNumDropped(), getNumShown(), getNumLate(), getLatencyMillis(),
+				getProcessedDepth(), getUpdatedDepth(), getFreeFrames(),
+				(recorder != null) ? "; " + recorder : "");
+	}
+
+
+	//--------------------- pipeline stage -----------------------
+
+	private abstract class Stage implements Runnable
+	// takes frames from the input queue, works on them, and passes them on
+	{
+		BlockingQueue<Frame> in, out;   // out is null for the last stage
+
+		Stage(BlockingQueue<Frame> in, BlockingQueue<Frame> out)
+		{
+			this.in = in;
+			this.out = out;
+		}
+
+		abstract void run(Frame frame);
+
+		Frame next() throws InterruptedException
+		// the next frame to work on
+		{  return in.take();  }
+
+		public void run()
+		{
+			try {
+				while (isRunning) {
+					Frame frame = next();
+					try {
+						run(frame);
+					}
+					catch (RuntimeException e) {
+						// don't let one bad frame stop the pipeline
+						e.printStackTrace();
+					}
+					if (out == updated)
+						out.put(frame);    // the render stage picks the newest
+					else if (out != null)
+						handOff(frame, out);
+					else
+						release(frame);
+				}
+			}
+			catch (InterruptedException e) {}   // pipeline stopped
+		}
+	}  // end of Stage inner class
+
+
+
+	private class RenderStage extends Stage
+	/* draws the newest of the frames waiting to be rendered; the older ones
+	   are dropped once it has been drawn, since the images they replaced
+	   could be on the screen until then */
+	{
+		private List<Frame> skipped = new ArrayList<Frame>();
+
+		RenderStage()
+		{  super(updated, null);  }
+
+		Frame next() throws InterruptedException
+		{
+			Frame frame = in.take();
+			Frame newer;
+			while (!keepsAll && (newer = in.poll()) != null) {
+				skipped.add(frame);
+				frame = newer;
+			}
+			return frame;
+		}  // end of next()
+
+		void run(Frame frame)
+		{
+			try {
+				trackPanel.render(frame);
+				frameShown(frame);
+			}
+			finally {
+				for (Frame old : skipped) {
+					numDropped.incrementAndGet();
+					trackPanel.recycle(old);
+					release(old);
+				}
+				skipped.clear();
+			}
+		}  // end of run()
+	}  // end of RenderStage inner class
+
+} // end of FramePipeline class
@@ -0,0 +1,179 @@
+package no.uio.kulu;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* FrameRecorder.java
+
+   Records the acquired frames (maps, tracked users and joints) to a
+   directory of memory-mapped segment files, laid out as described in
+   FrameFile.
+
+   The sensor loop only queues a frame; the frame is written by the
+   recorder's own thread, which then hands it back to the pipeline. If the
+   disk can't keep up and the queue is full, the frame is skipped rather
+   than holding up the sensor loop, and counted as lost.
+ */
+public class FrameRecorder implements Runnable
+{
+	static final int QUEUE_SIZE = 8;   // frames waiting to be written
+
+	private File dir;
+	private int width, height, frameBytes;
+	private FramePipeline pipeline;    // the frames are released back to it
+
+	private BlockingQueue<Frame> queue = new ArrayBlockingQueue<Frame>(QUEUE_SIZE);
+	private Thread writer;
+	private volatile boolean isRunning;
+
+	private int segment = -1;          // number of the segment being written
+	private RandomAccessFile segmentFile;
+	private MappedByteBuffer map;      // the mapping of the whole segment
+	private int framesInSegment;
+
+	private AtomicLong numWritten = new AtomicLong();
+	private AtomicLong numLost = new AtomicLong();
+
+
+	FrameRecorder(File dir, int width, int height, FramePipeline pipeline) throws IOException
+	{
+		this.dir = dir;
+		this.width = width;
+		this.height = height;
+		this.pipeline = pipeline;
+		frameBytes = FrameFile.frameBytes(width, height);
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create recording directory " + dir);
+
+		isRunning = true;
+		writer = new Thread(this, "Frame recorder");
+		writer.setDaemon(true);
+		writer.start();
+		System.out.println("Recording frames to " + dir);
+	} // end of FrameRecorder()
+
+
+	synchronized boolean record(Frame frame)
+	/* queue the frame for writing; false if the queue is full, in which case
+	   the caller still owns the frame */
+	{
+		if (isRunning && queue.offer(frame))
+			return true;
+		numLost.incrementAndGet();
+		return false;
+	} // end of record()
+
+
+	public void run()
+	// write the queued frames until close() is called and the queue is empty
+	{
+		try {
+			while (isRunning || !queue.isEmpty()) {
+				Frame frame = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (frame == null)
+					continue;
+				try {
+					write(frame);
+					numWritten.incrementAndGet();
+				}
+				catch (IOException e) {
+					System.out.println("Recording stopped: " + e);
+					isRunning = false;
+				}
+				finally {
+					pipeline.release(frame);
+				}
+			}
+		}
+		catch (InterruptedException e) {}
+		closeSegment();
+	} // end of run()
+
+
+	private void write(Frame frame) throws IOException
+	{
+		if (map == null || framesInSegment == FrameFile.FRAMES_PER_SEGMENT)
+			openSegment(segment + 1);
+
+		FrameFile.writeFrame(FrameFile.slice(map,
+				FrameFile.SEGMENT_HEADER + framesInSegment * frameBytes, frameBytes), frame);
+		framesInSegment++;
+		map.putInt(FrameFile.SEG_NUM_FRAMES, framesInSegment);   // the frame is complete
+	} // end of write()
+
+
+	private void openSegment(int n) throws IOException
+	{
+		closeSegment();
+		segment = n;
+		framesInSegment = 0;
+		segmentFile = new RandomAccessFile(FrameFile.segmentFile(dir, n), "rw");
+		segmentFile.setLength(0);
+		long size = FrameFile.SEGMENT_HEADER + (long) FrameFile.FRAMES_PER_SEGMENT * frameBytes;
+		map = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		map.order(FrameFile.ORDER);
+		map.putLong(0, FrameFile.SEGMENT_MAGIC);
+		map.putInt(8, FrameFile.VERSION);
+		map.putInt(FrameFile.SEG_WIDTH, width);
+		map.putInt(FrameFile.SEG_HEIGHT, height);
+		map.putInt(FrameFile.SEG_FRAME_BYTES, frameBytes);
+		map.putInt(FrameFile.SEG_NUM_FRAMES, 0);
+	} // end of openSegment()
+
+
+	private void closeSegment()
+	// flush the segment, and cut it down to the frames written
+	{
+		if (map == null)
+			return;
+		try {
+			map.force();
+			map = null;
+			segmentFile.setLength(FrameFile.SEGMENT_HEADER + (long) framesInSegment * frameBytes);
+			segmentFile.close();
+		}
+		catch (IOException e) {
+			System.out.println(e);
+		}
+	} // end of closeSegment()
+
+
+	public void close()
+	// stop recording, once the queued frames have been written
+	{
+		synchronized (this) {
+			isRunning = false;    // no more frames are queued after this
+		}
+		try {
+			writer.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// left over if the writer was interrupted
+		Frame frame;
+		while ((frame = queue.poll()) != null) {
+			numLost.incrementAndGet();
+			pipeline.release(frame);
+		}
+		System.out.println("Recorded " + numWritten + " frames to " + dir);
+	} // end of close()
+
+
+	public long getNumWritten()
+	{  return numWritten.get();  }
+
+	public long getNumLost()
+	{  return numLost.get();  }
+
+	public String toString()
+	{  return "recorded " + getNumWritten() + ", lost " + getNumLost();  }
+
+} // end of FrameRecorder class
@@ -0,0 +1,225 @@
+package no.uio.kulu;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/* FrameRing.java
+
+   A ring of frame slots in a memory-mapped file, shared between the
+   SensorHost process, which writes the frames, and RingFrameSource in the
+   game's process, which reads the newest one. Only the host knows the
+   size of the frames, so the first host makes the ring, and the game and
+   any later hosts open it.
+
+   Ring header (HEADER bytes, little-endian):
+     long   RING_MAGIC
+     int    VERSION
+     int    width, height
+     int    frameBytes
+     int    number of slots
+     long   sequence number of the newest complete frame, -1 for none
+     int    number of the host allowed to write
+
+   Slot n (of numSlots) starts at HEADER + n*(SLOT_HEADER + frameBytes), and
+   holds frame sequence numbers n, n+numSlots, n+2*numSlots, ... Its header
+   is a long stamp: -1 while the host is writing the slot, and the frame's
+   sequence number once it is complete. The frame itself is a FrameFile
+   frame record.
+
+   The reader checks the stamp before and after copying a slot, and tries
+   again with the newest frame if the host has started overwriting it. With
+   a few slots that only happens if the reader has stalled for several
+   frames.
+
+   Only the host whose number is in the header writes to the ring, so a
+   host which has been replaced, but is still running, can't mix its
+   frames in with those of the new one.
+
+   The stamps and the newest sequence number are read and written with
+   the buffer's plain gets and puts, which the JIT and the processor may
+   reorder with the frame's bytes. So both sides put a fence() between a
+   stamp and the frame: the host between marking the slot as being written
+   and writing the frame, and between the frame and its stamp; the reader
+   between the first stamp and the copy, and between the copy and the
+   second stamp. The Java memory model says nothing about memory shared
+   with another process, so the fence is HotSpot's: it doesn't move memory
+   accesses across a volatile read and write, and follows the write with a
+   full fence instruction.
+ */
+class FrameRing
+{
+	static final long RING_MAGIC = 0x31474E52554C554BL;   // "KULURNG1"
+	static final int VERSION = 1;
+	static final int HEADER = 64;
+	static final int SLOT_HEADER = 64;
+	static final int NUM_SLOTS = 4;
+
+	private static final int RING_WIDTH = 12, RING_HEIGHT = 16, RING_FRAME_BYTES = 20,
+			RING_NUM_SLOTS = 24, RING_NEWEST = 32, RING_HOST = 40;
+
+	private static final int MAX_TRIES = 3;    // reads of a slot before giving up
+
+	private File file;
+	private MappedByteBuffer map;
+	private int width, height, frameBytes, numSlots;
+	private volatile int fence;    // only used by fence()
+
+
+	private FrameRing(File file, MappedByteBuffer map)
+	{
+		this.file = file;
+		this.map = map;
+		map.order(FrameFile.ORDER);
+	}
+
+
+	static FrameRing create(File file, int width, int height, int hostID) throws IOException
+	// make a new, empty ring file for frames of the given size, written by the given host
+	{
+		int frameBytes = FrameFile.frameBytes(width, height);
+		long size = HEADER + (long) NUM_SLOTS * (SLOT_HEADER + frameBytes);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		FrameRing ring;
+		try {
+			raf.setLength(0);
+			raf.setLength(size);
+			ring = new FrameRing(file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+		}
+		finally {
+			raf.close();    // the mapping stays valid
+		}
+		MappedByteBuffer map = ring.map;
+		map.putInt(8, VERSION);
+		map.putInt(RING_WIDTH, width);
+		map.putInt(RING_HEIGHT, height);
+		map.putInt(RING_FRAME_BYTES, frameBytes);
+		map.putInt(RING_NUM_SLOTS, NUM_SLOTS);
+		map.putLong(RING_NEWEST, -1);
+		map.putInt(RING_HOST, hostID);
+		for (int n = 0; n < NUM_SLOTS; n++)
+			map.putLong(ring.slotOffset(n, frameBytes), -1);
+		ring.fence();
+		map.putLong(0, RING_MAGIC);    // last, so the ring is only recognised once it is ready
+		ring.readHeader();
+		return ring;
+	}  // end of create()
+
+
+	static FrameRing open(File file) throws IOException
+	// map an existing ring file
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		FrameRing ring;
+		try {
+			ring = new FrameRing(file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length()));
+		}
+		finally {
+			raf.close();
+		}
+		if (ring.map.capacity() < HEADER || ring.map.getLong(0) != RING_MAGIC)
+			throw new IOException(file + " is not a frame ring");
+		if (ring.map.getInt(8) != VERSION)
+			throw new IOException(file + " has an unknown version");
+		ring.readHeader();
+		if (ring.map.capacity() < ring.slotOffset(ring.numSlots, ring.frameBytes))
+			throw new IOException(file + " is too short for its frames");
+		return ring;
+	}  // end of open()
+
+
+	private void readHeader()
+	{
+		width = map.getInt(RING_WIDTH);
+		height = map.getInt(RING_HEIGHT);
+		frameBytes = map.getInt(RING_FRAME_BYTES);
+		numSlots = map.getInt(RING_NUM_SLOTS);
+	}
+
+	private int slotOffset(int slot, int frameBytes)
+	{  return HEADER + slot * (SLOT_HEADER + frameBytes);  }
+
+	private void fence()
+	// keep the mapped memory accesses before this one from being reordered with those after it
+	{  fence++;  }
+
+
+	int getWidth()
+	{  return width;  }
+
+	int getHeight()
+	{  return height;  }
+
+	long getNewest()
+	// the sequence number of the newest complete frame, -1 if there are none
+	{  return map.getLong(RING_NEWEST);  }
+
+
+	void setHost(int hostID)
+	// hand the ring over to another host
+	{  map.putInt(RING_HOST, hostID);  }
+
+
+	// ------------------ the host's side ---------------------
+
+	boolean write(Frame frame, int hostID)
+	/* write the frame into the next slot, and publish it; false, and nothing
+	   written, if the ring now belongs to another host */
+	{
+		if (map.getInt(RING_HOST) != hostID)
+			return false;
+		long seq = getNewest() + 1;    // carries on after the last host's frames
+		int offset = slotOffset((int) (seq % numSlots), frameBytes);
+		map.putLong(offset, -1);       // being written
+		fence();
+		FrameFile.writeFrame(FrameFile.slice(map, offset + SLOT_HEADER, frameBytes), frame);
+		fence();
+		map.putLong(offset, seq);
+		map.putLong(RING_NEWEST, seq);
+		return true;
+	}  // end of write()
+
+
+	// ------------------ the game's side ---------------------
+
+	boolean isComplete(long seq)
+	// whether the slot for seq holds that frame, and not one being written
+	{  return map.getLong(slotOffset((int) (seq % numSlots), frameBytes)) == seq;  }
+
+
+	ByteBuffer slot(long seq)
+	// a view of the frame record in the slot for seq
+	{
+		int offset = slotOffset((int) (seq % numSlots), frameBytes);
+		return FrameFile.slice(map, offset + SLOT_HEADER, frameBytes);
+	}
+
+
+	long read(Frame frame)
+	/* copy the newest frame into frame; the sequence number of the frame
+	   copied, or -1 if there is none or it was overwritten during every try */
+	{
+		for (int i = 0; i < MAX_TRIES; i++) {
+			long seq = getNewest();
+			if (seq < 0)
+				return -1;
+			int offset = slotOffset((int) (seq % numSlots), frameBytes);
+			if (map.getLong(offset) != seq)
+				continue;
+			fence();
+			FrameFile.readFrame(FrameFile.slice(map, offset + SLOT_HEADER, frameBytes), frame);
+			fence();
+			if (map.getLong(offset) == seq)   // not overwritten while it was copied
+				return seq;
+		}
+		return -1;
+	}  // end of read()
+
+
+	public String toString()
+	{  return "frame ring " + file + ", frame " + getNewest();  }
+
+} // end of FrameRing class
@@ -0,0 +1,77 @@
+package no.uio.kulu;
+
+import org.OpenNI.Context;
+import org.OpenNI.Point3D;
+import org.OpenNI.StatusException;
+
+/* FrameSource.java
+
+   Where the frames come from: a depth map, a user label map and an RGB
+   image per update, plus the users' skeleton joints and user lifecycle
+   events.
+
+   The sensor loop calls waitForUpdate() and then readFrame() for each
+   frame, both on the same thread. User lifecycle events are reported to
+   the UserListeners from that thread too, during waitForUpdate().
+
+   OpenNIFrameSource reads a Kinect through OpenNI and NITE, and
+   SyntheticFrameSource renders moving figures, so the program can be run
+   and measured without a sensor.
+ */
+public interface FrameSource
+{
+	/* told when a user appears, is lost, or has been calibrated so their
+	   skeleton joints are tracked */
+	public interface UserListener {
+		public void userDetected(int userID);
+		public void userLost(int userID);
+		public void userCalibrated(int userID);
+	}
+
+	/* told when reinitialize() releases the OpenNI context (null), and when it
+	   has made a new one, so anything made on the old context, such as NITE's
+	   hand tracking, can be let go of and made again. Called on the thread
+	   doing the re-initialization. */
+	public interface ContextListener {
+		public void contextChanged(Context context);
+	}
+
+	public int getWidth();
+
+	public int getHeight();
+
+	public void addUserListener(UserListener listener);
+
+	public void addContextListener(ContextListener listener);
+
+	// block until the next frame is ready
+	public void waitForUpdate() throws StatusException;
+
+	/* wait at most timeoutMillis for the next frame to be ready; false if it
+	   wasn't, and there is no frame to read. Sources whose frames can't be
+	   held up just wait for the next frame */
+	public boolean waitForUpdate(long timeoutMillis) throws StatusException;
+
+	/* copy the current frame into frame: the maps, the frame ID and
+	   timestamp, the tracked user IDs, and the joints of each calibrated
+	   user in projective (image) coordinates. A source that couldn't copy a
+	   whole frame sets frame.isValid to false, and the frame is skipped */
+	public void readFrame(Frame frame);
+
+	// convert a real-world point (mm) to projective (image) coordinates
+	public Point3D convertRealWorldToProjective(Point3D point) throws StatusException;
+
+	/* the OpenNI context behind the source, or null if there isn't one;
+	   NITE's hand tracking needs a context */
+	public Context getContext();
+
+	/* try to get a source that has stopped producing frames going again,
+	   e.g. by opening the sensor again; false if that failed or the source
+	   can't be restarted. Called from another thread while the sensor loop
+	   leaves the source alone. Any users are reported lost on the sensor
+	   thread, during the next wait for an update */
+	public boolean reinitialize();
+
+	public void release();
+
+} // end of FrameSource interface
@@ -0,0 +1,136 @@
+package no.uio.kulu;
+
+import java.awt.Rectangle;
+
+/* LabelRuns.java
+
+   The user label map of a Frame, run-length encoded by row.
+
+   The label map is nearly all background, with a few long runs of user
+   pixels on each row, so only the user runs are kept, as (start, length,
+   user ID); everything between them is background. The runs of row y are
+   numbered rowRuns[y] to rowRuns[y+1]-1, in order along the row.
+
+   The map is encoded once per frame by encode(), and the frame kernel, the
+   bounding boxes and the depth view then work in the number of runs rather
+   than the number of pixels.
+ */
+public class LabelRuns
+{
+
+	private static final int INITIAL_RUNS_PER_ROW = 8;
+
+	private final int width, height;
+
+	final int[] rowRuns;    // index of the first run of each row, and the number of runs at the end
+	int[] starts;           // x of the first pixel of each run
+	int[] lengths;          // pixels in each run
+	short[] users;          // user ID of each run
+	private int numRuns;
+
+	// the bounding box of each user, while findBounds() works
+	private int[] minX = new int[Frame.MAX_USERS], maxX = new int[Frame.MAX_USERS];
+	private int[] minY = new int[Frame.MAX_USERS], maxY = new int[Frame.MAX_USERS];
+
+
+	public LabelRuns(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		rowRuns = new int[height + 1];
+		int capacity = height * INITIAL_RUNS_PER_ROW;
+		starts = new int[capacity];
+		lengths = new int[capacity];
+		users = new short[capacity];
+	} // end of LabelRuns()
+
+
+	public void encode(short[] labels)
+	// encode a label map of width*height user IDs, 0 for the background
+	{
+		int n = 0;
+		for (int y = 0; y < height; y++) {
+			rowRuns[y] = n;
+			int rowStart = y*width;
+			int rowEnd = rowStart + width;
+			int pos = rowStart;
+			while (true) {
+				while (pos < rowEnd && labels[pos] == 0)   // background, by far the most common
+					pos++;
+				if (pos == rowEnd)
+					break;
+				short userID = labels[pos];
+				int runStart = pos++;
+				while (pos < rowEnd && labels[pos] == userID)
+					pos++;
+				if (n == starts.length)
+					grow();
+				starts[n] = runStart - rowStart;
+				lengths[n] = pos - runStart;
+				users[n] = userID;
+				n++;
+			}
+		}
+		rowRuns[height] = n;
+		numRuns = n;
+	} // end of encode()
+
+
+	private void grow()
+	{
+		int capacity = starts.length * 2;
+		int[] newStarts = new int[capacity];
+		int[] newLengths = new int[capacity];
+		short[] newUsers = new short[capacity];
+		System.arraycopy(starts, 0, newStarts, 0, starts.length);   // only called when full
+		System.arraycopy(lengths, 0, newLengths, 0, lengths.length);
+		System.arraycopy(users, 0, newUsers, 0, users.length);
+		starts = newStarts;
+		lengths = newLengths;
+		users = newUsers;
+	} // end of grow()
+
+
+	public void findBounds(Rectangle[] bounds)
+	/* set the bounding box of each user ID below Frame.MAX_USERS from the
+	   runs; the box is empty if the user has no pixels */
+	{
+		int numUsers = Frame.MAX_USERS;
+		for (int i = 0; i < numUsers; i++) {
+			minX[i] = Integer.MAX_VALUE;
+			maxX[i] = -1;
+		}
+		for (int y = 0; y < height; y++) {
+			for (int r = rowRuns[y]; r < rowRuns[y+1]; r++) {
+				int userID = users[r];
+				if (userID < 0 || userID >= numUsers)
+					continue;
+				if (maxX[userID] < 0)
+					minY[userID] = y;
+				maxY[userID] = y;
+				if (starts[r] < minX[userID])
+					minX[userID] = starts[r];
+				if (starts[r] + lengths[r] - 1 > maxX[userID])
+					maxX[userID] = starts[r] + lengths[r] - 1;
+			}
+		}
+		for (int i = 0; i < numUsers; i++) {
+			if (maxX[i] < 0)
+				bounds[i].setBounds(0, 0, 0, 0);
+			else
+				bounds[i].setBounds(minX[i], minY[i], maxX[i]-minX[i]+1, maxY[i]-minY[i]+1);
+		}
+	} // end of findBounds()
+
+
+	public int getWidth()
+	{  return width;  }
+
+	public int getHeight()
+	{  return height;  }
+
+	public int getNumRuns()
+	// the number of user runs in the whole map
+	{  return numRuns;  }
+
+} // end of LabelRuns class
@@ -13,51 +13,53 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 
 import javax.swing.JFrame;
 import javax.swing.JLayeredPane;
 import javax.swing.WindowConstants;
 
-import org.OpenNI.Context;
-import org.OpenNI.GeneralException;
-import org.OpenNI.StatusException;
-
 import clicktracking.no.uio.kulu.GGUIsManager;
 import clicktracking.no.uio.kulu.GestureGUI;
 
 
 public class Main extends JFrame implements Runnable, ComponentListener 
 {
-	//OpenNI
-	private Context context;
+	private FrameSource source;   // the Kinect, or a synthetic scene
 
 	private TrackerPanel trackPanel; 
+	private FramePipeline pipeline;   // processes and renders the frames acquired by run()
+	private SensorWatchdog watchdog;  // waits for the frames, and handles stalls
 	private GestureGUI gestureGUI;
+	private SkeletonEventRecorder eventLog;   // null if the skeleton events aren't logged
 	private JLayeredPane container; //Container for overlapping components
 
 
 	private volatile boolean isRunning;
 
-	//OpenNI
-	public Main()
+	public Main(FrameSource source, File recordDir, SkeletonEventRecorder eventLog)
 	{
 		super("KULU Spillet");		
+		this.source = source;
+		this.eventLog = eventLog;
 
 		setLayout( new BorderLayout() );   
 
-		try {
-			context = new Context();
-		} catch (GeneralException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
-		}
-
 		setSize(1600,600);
 		container = new JLayeredPane();
 		
 		//Player panel
-		trackPanel = new TrackerPanel(context, "files/Dictotor1.jpg");
-		gestureGUI = new GestureGUI(context);
+		trackPanel = new TrackerPanel(source, "files/Dictotor1.jpg");
+		if (eventLog != null) {
+			trackPanel.addSkeletonListener(eventLog);
+			trackPanel.addCameraListener(eventLog);
+		}
+		gestureGUI = new GestureGUI(source);
 		gestureGUI.setBounds(0, 0, 640, 480);
 		
 		container.add(trackPanel, new Integer(10));
@@ -76,7 +78,18 @@ public class Main extends JFrame implements Runnable, ComponentListener
 
 		this.addComponentListener(this);
 		
-		new Thread(this).start();
+		watchdog = new SensorWatchdog(source);
+		pipeline = new FramePipeline(trackPanel);
+		pipeline.start();
+		if (recordDir != null) {
+			try {
+				pipeline.startRecording(recordDir);
+			}
+			catch (IOException e) {
+				System.out.println(e);
+			}
+		}
+		new Thread(this, "Sensor").start();
 	} // end of GorillasTracker()
 
 	public void closeDown()
@@ -85,7 +98,7 @@ public class Main extends JFrame implements Runnable, ComponentListener
 	// --------------------Keyboard Listener--------------------
 
 	private void initKeyListener()
-	// define keys for stopping
+	// define keys for stopping, reporting the frame statistics, the depth view and recording
 	{
 		addKeyListener( new KeyAdapter() {
 			public void keyPressed(KeyEvent e)
@@ -94,35 +107,164 @@ public class Main extends JFrame implements Runnable, ComponentListener
 					((keyCode == KeyEvent.VK_C) && e.isControlDown()) )
 				// ESC, q, ctrl-c to stop isRunning 
 				isRunning = false;
+			else if (keyCode == KeyEvent.VK_S) {   // s to report the frame, sensor and stall statistics
+				System.out.println(pipeline);
+				System.out.println(pipeline.getHealthMonitor());
+				System.out.println(watchdog);
+			}
+			else if (keyCode == KeyEvent.VK_D)   // d to show/hide the depth map
+				trackPanel.setDepthShown(!trackPanel.isDepthShown());
+			else if (keyCode == KeyEvent.VK_R)   // r to start/stop recording to an .oni file
+				toggleRecording();
 			}
 		});
 	}  // end of initKeyListener()
 
 
+	private void toggleRecording()
+	// record the live session to a new, time-stamped .oni file
+	{
+		if (!(source instanceof OpenNIFrameSource)) {
+			System.out.println("Only a Kinect session can be recorded to .oni");
+			return;
+		}
+		OpenNIFrameSource kinect = (OpenNIFrameSource) source;
+		if (kinect.isRecording())
+			kinect.setRecording(null);
+		else
+			kinect.setRecording("session-" +
+					new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".oni");
+	}  // end of toggleRecording()
+
+
 
 	public static void main( String args[] )
-	{  new Main();  }
+	/* With no arguments the Kinect is used. "-synthetic N" shows N synthetic
+	   users instead, and "-fps F" sets their frame rate (0 for as fast as
+	   possible; the default is 30). "-replay DIR" plays back a recording at
+	   the speed given by "-speed S" (1 for the recorded rate, 0 for as fast as
+	   possible), and "-record DIR" records the frames of any of these.
+	   "-oni FILE" plays an .oni recording through OpenNI in place of the
+	   Kinect, also at the "-speed" given. "-events FILE" logs the skeleton
+	   events for SkeletonEventReplayer, with the user images shrunk by
+	   "-event-images SCALE" (none by default). "-virtual-clock" runs the game's
+	   timing by the frame timestamps instead of the wall clock, with no
+	   waiting between frames, so a synthetic scene or a recording runs as
+	   fast as it can be processed but behaves as it would in real time.
+	   "-host" runs the Kinect, the synthetic scene or the .oni recording in a
+	   SensorHost process, which is restarted if it crashes or stalls. */
+	{
+		int numSynthetic = -1;
+		int fps = 30;
+		File replayDir = null, recordDir = null;
+		String oniFnm = null;
+		File eventFile = null;
+		int eventImageScale = 0;
+		double speed = 1;
+		boolean useHost = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-synthetic") && i+1 < args.length)
+				numSynthetic = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-fps") && i+1 < args.length)
+				fps = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-replay") && i+1 < args.length)
+				replayDir = new File(args[++i]);
+			else if (args[i].equals("-oni") && i+1 < args.length)
+				oniFnm = args[++i];
+			else if (args[i].equals("-events") && i+1 < args.length)
+				eventFile = new File(args[++i]);
+			else if (args[i].equals("-event-images") && i+1 < args.length)
+				eventImageScale = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-virtual-clock"))
+				Clock.setDefault(new VirtualClock());   // before anything takes the clock
+			else if (args[i].equals("-speed") && i+1 < args.length)
+				speed = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-record") && i+1 < args.length)
+				recordDir = new File(args[++i]);
+			else if (args[i].equals("-host"))
+				useHost = true;
+			else {
+				System.out.println("Usage: Main [-synthetic <users> [-fps <rate>] | "
+						+ "-replay <dir> | -oni <file>] [-speed <speed>] [-record <dir>] "
+						+ "[-events <file> [-event-images <scale>]] [-virtual-clock] [-host]");
+				System.exit(1);
+			}
+		}
+
+		FrameSource source = null;
+		if (useHost && replayDir == null) {
+			List<String> hostArgs = new ArrayList<String>();
+			if (numSynthetic >= 0) {
+				hostArgs.add("-synthetic");
+				hostArgs.add(Integer.toString(numSynthetic));
+				hostArgs.add("-fps");
+				hostArgs.add(Integer.toString(fps));
+			}
+			else if (oniFnm != null) {
+				hostArgs.add("-oni");
+				hostArgs.add(oniFnm);
+				hostArgs.add("-speed");
+				hostArgs.add(Double.toString(speed));
+			}
+			try {
+				File ringFile = File.createTempFile("kulu-frames", ".ring");
+				ringFile.deleteOnExit();
+				source = new RingFrameSource(ringFile, hostArgs);   // at the size of the host's frames
+			}
+			catch (IOException e) {
+				System.out.println(e);
+				System.exit(1);
+			}
+		}
+		else if (numSynthetic >= 0)
+			source = new SyntheticFrameSource(numSynthetic, fps);
+		else if (replayDir != null) {
+			try {
+				source = new RecordedFrameSource(replayDir, speed);
+			}
+			catch (IOException e) {
+				System.out.println(e);
+				System.exit(1);
+			}
+		}
+		else
+			source = new OpenNIFrameSource(oniFnm, speed);   // the Kinect if oniFnm is null
+
+		SkeletonEventRecorder eventLog = null;
+		if (eventFile != null) {
+			try {
+				eventLog = new SkeletonEventRecorder(eventFile,
+						source.getWidth(), source.getHeight(), eventImageScale);
+			}
+			catch (IOException e) {
+				System.out.println(e);
+			}
+		}
+		new Main(source, recordDir, eventLog);
+	}  // end of main()
 
 	@Override
 	public void run() {
 		isRunning = true;
 		while (isRunning) {
 			try {
-				context.waitAnyUpdateAll();
+				if (watchdog.waitForUpdate())
+					pipeline.acquire();   // frame N+1 is acquired while frame N is processed
+				else if (watchdog.isStalled())
+					trackPanel.showStall(watchdog.getStallMessage());
 			}
-			catch(StatusException e)
-			{  System.out.println(e); 
-			System.exit(1);
-			}
-			trackPanel.run();
+			catch(InterruptedException e)
+			{  isRunning = false;  }
 
 		}
 		// close down
-		try {
-			context.stopGeneratingAll();
-		}
-		catch (StatusException e) {}
-		context.release();
+		pipeline.stop();
+		System.out.println(pipeline);
+		System.out.println(pipeline.getHealthMonitor());
+		System.out.println(watchdog);
+		if (eventLog != null)
+			eventLog.close();
+		source.release();
 		System.exit(0);
 
 	}
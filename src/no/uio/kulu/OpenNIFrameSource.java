@@ -0,0 +1,580 @@
+package no.uio.kulu;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.OpenNI.AlternativeViewpointCapability;
+import org.OpenNI.CalibrationProgressEventArgs;
+import org.OpenNI.CalibrationProgressStatus;
+import org.OpenNI.CodecID;
+import org.OpenNI.Context;
+import org.OpenNI.DepthGenerator;
+import org.OpenNI.DepthMetaData;
+import org.OpenNI.FieldOfView;
+import org.OpenNI.GeneralException;
+import org.OpenNI.IObservable;
+import org.OpenNI.IObserver;
+import org.OpenNI.ImageGenerator;
+import org.OpenNI.License;
+import org.OpenNI.MapOutputMode;
+import org.OpenNI.NodeType;
+import org.OpenNI.Player;
+import org.OpenNI.Point3D;
+import org.OpenNI.PoseDetectionCapability;
+import org.OpenNI.PoseDetectionEventArgs;
+import org.OpenNI.RecordMedium;
+import org.OpenNI.Recorder;
+import org.OpenNI.SceneMetaData;
+import org.OpenNI.SkeletonCapability;
+import org.OpenNI.SkeletonJoint;
+import org.OpenNI.SkeletonJointPosition;
+import org.OpenNI.SkeletonProfile;
+import org.OpenNI.StatusException;
+import org.OpenNI.UserEventArgs;
+import org.OpenNI.UserGenerator;
+
+/* OpenNIFrameSource.java
+
+   Reads frames from a Kinect through OpenNI, with NITE's user generator for
+   the label map and skeletons. This is the set-up that used to be done by
+   TrackerPanel.configOpenNI() and Skeletons.configure().
+
+   Instead of a device, an .oni recording can be played through OpenNI's
+   Player node, whose mock depth and image nodes feed the user generator as
+   the device would. The playback speed is a multiple of the recorded rate,
+   with 0 for as fast as possible. A live session can be recorded to an .oni
+   file with a Recorder node.
+
+   Four observers take each user from detection to skeleton tracking:
+     user detection --> pose detection --> skeleton calibration -->
+     skeleton tracking
+   The user listeners are told about new and lost users, and about users
+   whose calibration has finished.
+
+   The joints are copied into the frame's arrays as they are read. They are
+   converted to projective coordinates here, with the depth camera's field
+   of view, as OpenNI does, so no Point3D is made for each one. A joint that
+   can't be read is reported once for each calibration of the user, not on
+   every frame.
+
+   The sensor can be waited for with a time limit, by polling the depth
+   generator for new data, and if it stops producing frames the context can
+   be released and made again from scratch by reinitialize(). The context
+   listeners are told, so they can make their own nodes again.
+ */
+public class OpenNIFrameSource implements FrameSource
+{
+	// the joints copied into each frame for each tracked skeleton
+	private static final SkeletonJoint[] JOINTS = {
+			SkeletonJoint.HEAD, SkeletonJoint.NECK,
+			SkeletonJoint.LEFT_SHOULDER, SkeletonJoint.LEFT_ELBOW, SkeletonJoint.LEFT_HAND,
+			SkeletonJoint.RIGHT_SHOULDER, SkeletonJoint.RIGHT_ELBOW, SkeletonJoint.RIGHT_HAND,
+			SkeletonJoint.TORSO,
+			SkeletonJoint.LEFT_HIP, SkeletonJoint.LEFT_KNEE, SkeletonJoint.LEFT_FOOT,
+			SkeletonJoint.RIGHT_HIP, SkeletonJoint.RIGHT_KNEE, SkeletonJoint.RIGHT_FOOT };
+
+	private static final long POLL_INTERVAL = 1;   // ms between checks for new data in a timed wait
+
+	private Context context;
+	private DepthMetaData depthMD;
+	private SceneMetaData sceneMD;
+	private DepthGenerator depthGen;
+	private ImageGenerator imageGen;
+	private UserGenerator userGen;
+	private SkeletonCapability skelCap; // to output skeletal data, including the location of the joints
+	private SkeletonJoint[] activeJoints;   // the JOINTS the skeleton profile tracks
+	private boolean[] missingReported = new boolean[Frame.MAX_USERS];   // a joint couldn't be read since calibration
+	private float xToProjective, yToProjective;   // real world x/z and y/z to pixels, from the field of view
+	private PoseDetectionCapability poseDetectionCap; 	// to recognize when the user is in a specific position
+	private String calibPoseName = null;
+
+	private Player player = null;       // when playing a recording
+	private Recorder recorder = null;   // when recording the session
+	private String recordingTo = null;  // the file being recorded to
+	private volatile String recordFnm = null;   // the file wanted, or null to stop
+
+	private List<UserListener> listeners = new ArrayList<UserListener>();
+	private List<ContextListener> contextListeners = new ArrayList<ContextListener>();
+	private boolean[] detected = new boolean[Frame.MAX_USERS];   // users reported to the listeners
+
+	private String oniFnm;     // the recording played, or null for the device
+	private double speed;
+	private volatile boolean isOpen;     // false while the context is being made again
+	private volatile boolean lostAll;    // the users went with the last context
+
+	private int width, height;
+
+
+	public OpenNIFrameSource()
+	{  this(null, 1);  }
+
+
+	public OpenNIFrameSource(String oniFnm, double speed)
+	/* play the .oni file at the given speed, or use the device if oniFnm is null */
+	{
+		this.oniFnm = oniFnm;
+		this.speed = speed;
+		try {
+			open();
+		}
+		catch (GeneralException e) {
+			System.out.println(e);
+			System.exit(1);
+		}
+	} // end of OpenNIFrameSource()
+
+
+	private void open() throws GeneralException
+	// make the context, with the device or the recording
+	{
+		context = new Context();
+		if (oniFnm == null)
+			configDevice();
+		else
+			configPlayer(oniFnm, speed);
+		configOpenNI();
+		width = depthMD.getFullXRes();
+		height = depthMD.getFullYRes();
+		FieldOfView fov = depthGen.getFieldOfView();
+		xToProjective = (float) (width / (2 * Math.tan(fov.getHFOV() / 2)));
+		yToProjective = (float) (height / (2 * Math.tan(fov.getVFOV() / 2)));
+		isOpen = true;
+	}  // end of open()
+
+
+	/* create the depth and image generators for the device */
+	private void configDevice() throws GeneralException
+	{
+		depthGen = DepthGenerator.create(context);
+		imageGen = ImageGenerator.create(context);
+
+		// set the viewpoint of the DepthGenerator to match the ImageGenerator
+		boolean hasAltView =
+				depthGen.isCapabilitySupported("AlternativeViewPoint");
+		if (hasAltView) {
+			AlternativeViewpointCapability altViewCap =
+					depthGen.getAlternativeViewpointCapability();
+			altViewCap.setViewpoint(imageGen);
+		}
+		else {
+			System.out.println("Alternative ViewPoint not supported");
+			System.exit(1);
+		}
+
+		MapOutputMode mapMode = new MapOutputMode(640, 480, 30);   // xRes, yRes, FPS
+		depthGen.setMapOutputMode(mapMode);
+		imageGen.setMapOutputMode(mapMode);
+		context.setGlobalMirror(true);         // set mirror mode
+	}  // end of configDevice()
+
+
+	/* open the recording, and use its depth and image nodes; the viewpoint
+	   and mirroring are as they were recorded */
+	private void configPlayer(String oniFnm, double speed) throws GeneralException
+	{
+		player = context.openFileRecordingEx(oniFnm);
+		player.setRepeat(true);
+		player.setPlaybackSpeed(speed);
+		depthGen = (DepthGenerator) context.findExistingNode(NodeType.DEPTH);
+		try {
+			imageGen = (ImageGenerator) context.findExistingNode(NodeType.IMAGE);
+		}
+		catch (GeneralException e) {
+			System.out.println("No RGB images in " + oniFnm);   // a depth-only recording
+		}
+		System.out.println("Playing " + oniFnm + " (" +
+				player.getNumberOfFrames(depthGen) + " frames)");
+	}  // end of configPlayer()
+
+
+	/* create the depth metadata, user generator, scene metadata, and the
+	   skeleton observers
+	 */
+	private void configOpenNI() throws GeneralException
+	{
+		// add the NITE Licence
+		License license = new License("PrimeSense",
+				"0KOIk2JeIBYClPWVnMoRKn5cdY4=");   // vendor, key
+		context.addLicense(license);
+
+		depthMD = depthGen.getMetaData(); // use depth metadata to access depth info (avoids bug with DepthGenerator)
+
+		userGen = UserGenerator.create(context);
+		sceneMD = userGen.getUserPixels(0);
+		// used to return a map containing user IDs (or 0) at each depth location
+
+		configSkeletons();
+
+		context.startGeneratingAll();
+		System.out.println("Started context generating...");
+	}  // end of configOpenNI()
+
+
+	/* create pose and skeleton detection capabilities for the user generator,
+	   and set up observers (listeners)   */
+	private void configSkeletons() throws StatusException
+	{
+		// should really check these using ProductionNode.isCapabilitySupported()
+		poseDetectionCap = userGen.getPoseDetectionCapability();
+
+		skelCap = userGen.getSkeletonCapability();
+		calibPoseName = skelCap.getSkeletonCalibrationPose();  // the 'psi' pose
+		skelCap.setSkeletonProfile(SkeletonProfile.ALL);
+		// other possible values: UPPER_BODY, LOWER_BODY, HEAD_HANDS
+		findActiveJoints();
+
+		// set up four observers
+		userGen.getNewUserEvent().addObserver(new NewUserObserver());   // new user found
+		userGen.getLostUserEvent().addObserver(new LostUserObserver()); // lost a user
+
+		poseDetectionCap.getPoseDetectedEvent().addObserver(
+				new PoseDetectedObserver());
+		// for when a pose is detected
+
+		skelCap.getCalibrationCompleteEvent().addObserver(
+				new CalibrationCompleteObserver());
+		// for when skeleton calibration is completed, and tracking starts
+	}  // end of configSkeletons()
+
+
+	private void findActiveJoints()
+	// the JOINTS the profile tracks; report the others (should not happen)
+	{
+		List<SkeletonJoint> active = new ArrayList<SkeletonJoint>();
+		for (SkeletonJoint joint : JOINTS) {
+			if (skelCap.isJointAvailable(joint) && skelCap.isJointActive(joint))
+				active.add(joint);
+			else
+				System.out.println(joint + " not available for updates");
+		}
+		activeJoints = active.toArray(new SkeletonJoint[active.size()]);
+	}  // end of findActiveJoints()
+
+
+	public int getWidth()
+	{  return width;  }
+
+	public int getHeight()
+	{  return height;  }
+
+	public Context getContext()
+	{  return context;  }
+
+	public void addUserListener(UserListener listener)
+	{  listeners.add(listener);  }
+
+	public void addContextListener(ContextListener listener)
+	{  contextListeners.add(listener);  }
+
+
+	public boolean isPlayback()
+	{  return player != null;  }
+
+
+	public void setPlaybackSpeed(double speed) throws StatusException
+	/* 1 for the recorded rate, 0 for as fast as possible */
+	{
+		if (player != null)
+			player.setPlaybackSpeed(speed);
+	}
+
+
+	public void setRecording(String fnm)
+	/* start recording the session to an .oni file, or stop if fnm is null;
+	   the recorder is changed by the sensor thread before its next update */
+	{
+		if (player != null)
+			System.out.println("Only a live session can be recorded");
+		else
+			recordFnm = fnm;
+	}  // end of setRecording()
+
+
+	public boolean isRecording()
+	{  return recordFnm != null;  }
+
+
+	public void waitForUpdate() throws StatusException
+	{
+		reportLosses();
+		String fnm = recordFnm;
+		if ((fnm == null) ? (recorder != null) : !fnm.equals(recordingTo))
+			updateRecorder(fnm);
+		context.waitAnyUpdateAll();
+	}  // end of waitForUpdate()
+
+
+	public boolean waitForUpdate(long timeoutMillis) throws StatusException
+	/* wait until the depth generator has new data, or timeoutMillis have
+	   passed, and then update the context; a recording is never held up */
+	{
+		reportLosses();
+		long start = System.nanoTime();
+		while (!isOpen || (player == null && !depthGen.isNewDataAvailable())) {
+			if (System.nanoTime() - start >= timeoutMillis * 1000000L)
+				return false;
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		waitForUpdate();
+		return true;
+	}  // end of waitForUpdate()
+
+
+	private void reportLosses()
+	// after a reinitialize(), tell the listeners that everyone has gone
+	{
+		if (!lostAll)
+			return;
+		lostAll = false;
+		for (int userID = 1; userID < Frame.MAX_USERS; userID++)
+			if (detected[userID]) {
+				detected[userID] = false;
+				for (UserListener l : listeners)
+					l.userLost(userID);
+			}
+	}  // end of reportLosses()
+
+
+	public boolean reinitialize()
+	/* release the context, and open the device or recording again from
+	   scratch; the sensor loop is leaving the source alone. A recording of
+	   the session is stopped. */
+	{
+		System.out.println("Re-initializing OpenNI");
+		isOpen = false;
+		if (recordFnm != null) {
+			recordFnm = null;
+			updateRecorder(null);
+		}
+		for (ContextListener l : contextListeners)
+			l.contextChanged(null);     // before the old context is released
+		closeContext();
+		lostAll = true;
+		try {
+			open();
+			System.out.println("OpenNI re-initialized");
+			for (ContextListener l : contextListeners)
+				l.contextChanged(context);
+			return true;
+		}
+		catch (GeneralException e) {
+			System.out.println("Could not re-initialize OpenNI: " + e);
+			return false;
+		}
+	}  // end of reinitialize()
+
+
+	private void updateRecorder(String fnm)
+	// stop the current recording, and start recording to fnm if it isn't null
+	{
+		if (recorder != null) {
+			recorder.dispose();
+			System.out.println("Stopped recording to " + recordingTo);
+			recorder = null;
+			recordingTo = null;
+		}
+		if (fnm == null)
+			return;
+		try {
+			recorder = Recorder.create(context, "oni");
+			recorder.setDestination(RecordMedium.FILE, fnm);
+			recorder.addNodeToRecording(depthGen, CodecID.Z16WithTables);
+			recorder.addNodeToRecording(imageGen, CodecID.Jpeg);
+			recordingTo = fnm;
+			System.out.println("Recording to " + fnm);
+		}
+		catch (GeneralException e) {
+			System.out.println(e);
+			if (recorder != null) {
+				recorder.dispose();
+				recorder = null;
+			}
+			recordFnm = null;
+		}
+	}  // end of updateRecorder()
+
+
+	public void readFrame(Frame frame)
+	/* copy the depth map, user label map, RGB image and joints into the frame */
+	{
+		depthMD = depthGen.getMetaData();    // reassignment to avoid a flickering viewpoint
+		userGen.getUserPixels(0, sceneMD);
+
+		frame.frameId = depthMD.getFrameID();
+		frame.timestamp = depthMD.getTimestamp();
+		frame.acquiredNanos = System.nanoTime();
+		depthMD.getData().createShortBuffer().get(frame.depth);
+		sceneMD.getData().createShortBuffer().get(frame.labels);
+		frame.rgbFrameId = frame.frameId;
+		frame.rgbTimestamp = frame.timestamp;
+		if (imageGen != null) {
+			frame.rgbFrameId = imageGen.getFrameID();
+			frame.rgbTimestamp = imageGen.getTimestamp();
+			try {
+				imageGen.getImageMap().createByteBuffer().get(frame.rgb);
+			}
+			catch (GeneralException e) {
+				System.out.println(e);
+			}
+		}
+
+		Arrays.fill(frame.skeletonTracked, false);
+		try {
+			frame.trackedUsers = userGen.getUsers();   // there may be many users in the scene
+			for (int userID : frame.trackedUsers) {
+				if (userID <= 0 || userID >= Frame.MAX_USERS)
+					continue;
+				if (skelCap.isSkeletonCalibrating(userID))
+					continue;    // test to avoid occassional crashes with isSkeletonTracking()
+				if (skelCap.isSkeletonTracking(userID)) {
+					readJoints(frame, userID);
+					frame.skeletonTracked[userID] = true;
+				}
+			}
+		}
+		catch (StatusException e) {
+			System.out.println(e);
+			frame.trackedUsers = new int[0];
+		}
+	}  // end of readFrame()
+
+
+	private void readJoints(Frame frame, int userID) throws StatusException
+	/* store the projective position and confidence of each of the user's
+	   active joints in the frame, by joint ordinal; the other joints aren't read */
+	{
+		frame.clearJoints(userID);
+		for (SkeletonJoint joint : activeJoints) {
+			SkeletonJointPosition pos = skelCap.getSkeletonJointPosition(userID, joint);
+			if (pos == null) {
+				if (!missingReported[userID])    // once until the user is calibrated again
+					System.out.println("No update for " + joint + " of user " + userID);
+				missingReported[userID] = true;
+				continue;
+			}
+
+			Point3D pt = pos.getPosition();
+			float z = pt.getZ();
+			if (z != 0)   // has a depth position
+				frame.setJoint(userID, joint.ordinal(), width/2 + xToProjective * pt.getX() / z,
+						height/2 - yToProjective * pt.getY() / z, z, pos.getConfidence());
+			else  // no info found for that user's joint
+				frame.setJoint(userID, joint.ordinal(), 0, 0, 0, 0);
+		}
+	}  // end of readJoints()
+
+
+	public Point3D convertRealWorldToProjective(Point3D point) throws StatusException
+	{  return depthGen.convertRealWorldToProjective(point);  }
+
+
+	public void release()
+	{
+		updateRecorder(null);
+		closeContext();
+	}  // end of release()
+
+
+	private void closeContext()
+	{
+		if (context == null)
+			return;
+		try {
+			context.stopGeneratingAll();
+		}
+		catch (StatusException e) {}
+		context.release();
+		context = null;
+		player = null;
+		imageGen = null;
+	}  // end of closeContext()
+
+
+	//--------------------- 4 observers -----------------------
+	/*   user detection --> pose detection --> skeleton calibration -->
+	    skeleton tracking
+	    + may also lose a user
+	 */
+	class NewUserObserver implements IObserver<UserEventArgs>
+	{
+		@SuppressWarnings("deprecation")
+		public void update(IObservable<UserEventArgs> observable, UserEventArgs args)
+		{
+			int userID = args.getId();
+			System.out.println("Detected new user " + userID);
+			try {
+				// try to detect a pose for the new user
+				poseDetectionCap.StartPoseDetection(calibPoseName, userID);   // big-S ?
+				if (userID > 0 && userID < Frame.MAX_USERS)
+					detected[userID] = true;
+				for (UserListener l : listeners)
+					l.userDetected(userID);
+			}
+			catch (StatusException e)
+			{ e.printStackTrace(); }
+		}
+	}  // end of NewUserObserver inner class
+
+	class LostUserObserver implements IObserver<UserEventArgs>
+	{
+		public void update(IObservable<UserEventArgs> observable, UserEventArgs args)
+		{
+			int userID = args.getId();
+			System.out.println("Lost track of user " + userID);
+			if (userID > 0 && userID < Frame.MAX_USERS)
+				detected[userID] = false;
+			for (UserListener l : listeners)
+				l.userLost(userID);
+		}
+	} // end of LostUserObserver inner class
+
+	class PoseDetectedObserver implements IObserver<PoseDetectionEventArgs>
+	{
+		public void update(IObservable<PoseDetectionEventArgs> observable,
+				PoseDetectionEventArgs args)
+		{
+			int userID = args.getUser();
+			System.out.println(args.getPose() + " pose detected for user " + userID);
+			try {
+				// finished pose detection; switch to skeleton calibration
+				poseDetectionCap.StopPoseDetection(userID);    // big-S ?
+				skelCap.requestSkeletonCalibration(userID, true);
+			}
+			catch (StatusException e)
+			{  e.printStackTrace(); }
+		}
+	}  // end of PoseDetectedObserver inner class
+
+	class CalibrationCompleteObserver implements IObserver<CalibrationProgressEventArgs>
+	{
+		public void update(IObservable<CalibrationProgressEventArgs> observable,
+				CalibrationProgressEventArgs args)
+		{
+			int userID = args.getUser();
+			System.out.println("Calibration status: " + args.getStatus() + " for user " + userID);
+			try {
+				if (args.getStatus() == CalibrationProgressStatus.OK) {
+					// calibration succeeeded; move to skeleton tracking
+					System.out.println("Starting tracking user " + userID);
+					if (userID > 0 && userID < Frame.MAX_USERS)
+						missingReported[userID] = false;
+					skelCap.startTracking(userID);
+					for (UserListener l : listeners)
+						l.userCalibrated(userID);
+				}
+				else    // calibration failed; return to pose detection
+					poseDetectionCap.StartPoseDetection(calibPoseName, userID);    // big-S ?
+			}
+			catch (StatusException e)
+			{  e.printStackTrace(); }
+		}
+	}  // end of CalibrationCompleteObserver inner class
+
+} // end of OpenNIFrameSource class
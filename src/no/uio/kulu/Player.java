@@ -3,6 +3,7 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -20,7 +21,10 @@ public class Player {
 
 
 	private Map<ImagePosition, SkeletonImage> imgList = new  LinkedHashMap<ImagePosition, SkeletonImage>();
-	private BufferedImage playerImage;
+	private BufferedImage playerImage; //The player's part of the camera frame
+	private int imageX, imageY; //Position of playerImage in the camera frame
+	private Rectangle imageBounds = new Rectangle(); //The player's part of playerImage, in the camera frame
+	private int frameWidth, frameHeight; //Size of the camera frame, which joint positions are relative to
 	private static double SCALEDEFAULT = 1300; //At 1000 px distance (z) the scale value = 1 or no scaling
 	//	private String message;
 
@@ -33,7 +37,10 @@ public class Player {
 		FEET
 	}
 
-	public Player(){
+	public Player(int frameWidth, int frameHeight){
+		this.frameWidth = frameWidth;
+		this.frameHeight = frameHeight;
+
 		BufferedImage headMask = loadImage("files/costume/sombrero_small.png");
 		BufferedImage leftHand = loadImage("files/costume/gun_small.png");
 		BufferedImage rightHand = loadImage("files/costume/taco_small.png");
@@ -77,9 +84,12 @@ public class Player {
 
 	}
 
-	public void setPlayerImage(BufferedImage playerImage){
-		if(playerImage != null)
-			this.playerImage = playerImage;
+	public void setPlayerImage(BufferedImage playerImage, int x, int y, Rectangle bounds){
+		this.playerImage = playerImage;   // null when the player isn't in the camera image
+		imageX = x;
+		imageY = y;
+		if(bounds != null)
+			imageBounds.setBounds(bounds);   // the caller reuses its rectangle
 	}
 
 	public void draw(Graphics2D g2d, Dimension size) {
@@ -87,10 +97,16 @@ public class Player {
 			return;	
 		
 		AffineTransform origTF = g2d.getTransform();    // store original orientation
+		double scaleX = size.getWidth() / frameWidth; //Camera frame to screen scaling
+		double scaleY = size.getHeight() / frameHeight;
 		
 		if(playerImage != null){
-			g2d.scale(size.getWidth() / playerImage.getWidth(), size.getHeight() / playerImage.getHeight());
-			g2d.drawImage(playerImage, 0, 0, null);
+			g2d.scale(scaleX, scaleY);
+			//Only the player's bounds are drawn, straight out of the camera image
+			int x0 = imageBounds.x, y0 = imageBounds.y;
+			int x1 = x0 + imageBounds.width, y1 = y0 + imageBounds.height;
+			g2d.drawImage(playerImage, x0, y0, x1, y1,
+					x0 - imageX, y0 - imageY, x1 - imageX, y1 - imageY, null);
 		}
 
 		for(ImagePosition position : imgList.keySet()){
@@ -114,7 +130,7 @@ public class Player {
 				
 				if(z > 0){
 					//Affinetransform works in oposite order
-					newTF.concatenate(AffineTransform.getScaleInstance(size.getWidth() / playerImage.getWidth(), size.getHeight() / playerImage.getHeight()));
+					newTF.concatenate(AffineTransform.getScaleInstance(scaleX, scaleY));
 					newTF.concatenate(AffineTransform.getTranslateInstance(si.getPivot().getX() + si.getOffset().getX(), si.getPivot().getY() + si.getOffset().getY()));
 					newTF.concatenate(AffineTransform.getRotateInstance( Math.toRadians(si.getAngle())));
 					newTF.concatenate(AffineTransform.getScaleInstance(sx, sy));
@@ -5,6 +5,7 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
@@ -19,14 +20,19 @@ import org.OpenNI.Point3D;
 
 public class PlayerController implements SkeletonEvent, CameraListener{
 
+	/* players is changed by the skeleton update thread while drawAll() is
+	   called on the event dispatch thread, so all access is synchronized */
 	Map <Integer, Player> players = new LinkedHashMap <Integer, Player> ();
 	private String message; //On screen message
+	private int frameWidth, frameHeight; //Size of the camera frame the players are tracked in
 	
-	public PlayerController(){
+	public PlayerController(int frameWidth, int frameHeight){
+		this.frameWidth = frameWidth;
+		this.frameHeight = frameHeight;
 		setDefaultMessage();
 	}
 	
-	public void drawAll(Graphics2D g2d, Dimension size){
+	public synchronized void drawAll(Graphics2D g2d, Dimension size){
 		Iterator iterator = players.keySet().iterator();
 		while(iterator.hasNext()){
 			Integer id = (Integer) iterator.next();
@@ -43,14 +49,14 @@ public class PlayerController implements SkeletonEvent, CameraListener{
 	}
 
 	@Override
-	public void userObserved(int id) {
-		players.put(id, new Player());
+	public synchronized void userObserved(int id) {
+		players.put(id, new Player(frameWidth, frameHeight));
 		toggleMessage("Hei, du er spiller "+id+". Hold hendene rett opp for å begynne.");
 
 	}
 
 	@Override
-	public void userLost(int id) {
+	public synchronized void userLost(int id) {
 		players.remove(id);
 		toggleMessage("Hvor ble du av nummer "+id+"?");
 		//If no more players
@@ -60,20 +66,20 @@ public class PlayerController implements SkeletonEvent, CameraListener{
 	}
 
 	@Override
-	public void userCalibrated(int id) {
+	public synchronized void userCalibrated(int id) {
 		toggleMessage("Da er jeg klar. Pynter litt på nummer "+ id +". :)");
 
 	}
 
 	@Override
-	public void updateHeadPosition(int userID, Point3D pivot, Point3D base,
+	public synchronized void updateHeadPosition(int userID, Point3D pivot, Point3D base,
 			int angle) {
 		Player p = players.get(userID);
 		p.updateSkeletonImagePosition(Player.ImagePosition.HEAD, pivot, base, angle);
 	}
 
 	@Override
-	public void updateBodyPosition(int userID, Point3D pivot, Point3D base,
+	public synchronized void updateBodyPosition(int userID, Point3D pivot, Point3D base,
 			int angle) {
 		Player p = players.get(userID);
 		if(p != null)
@@ -82,22 +88,27 @@ public class PlayerController implements SkeletonEvent, CameraListener{
 	}
 
 	@Override
-	public void updateFeetPosition(int userID, Point3D pivot, Point3D base,
+	public synchronized void updateFeetPosition(int userID, Point3D pivot, Point3D base,
 			int angle) {
 
 
 	}
 
 	@Override
-	public void userPictureUpdate(int userID, BufferedImage userImage) {
+	public synchronized boolean wantsUser(int userID) {
+		return players.containsKey(userID);   // only users with a player are drawn
+	}
+
+	@Override
+	public synchronized void userPictureUpdate(int userID, BufferedImage userImage, int x, int y, Rectangle bounds) {
 		Player player = players.get(userID);
 		if(player != null)
-			player.setPlayerImage(userImage);
+			player.setPlayerImage(userImage, x, y, bounds);
 
 	}
 
 	@Override
-	public void updateLeftHandPosition(int userID, Point3D pivot,
+	public synchronized void updateLeftHandPosition(int userID, Point3D pivot,
 			Point3D base, int angle) {
 		Player p = players.get(userID);
 		if(p != null)
@@ -106,7 +117,7 @@ public class PlayerController implements SkeletonEvent, CameraListener{
 	}
 
 	@Override
-	public void updateRightHandPosition(int userID, Point3D pivot,
+	public synchronized void updateRightHandPosition(int userID, Point3D pivot,
 			Point3D base, int angle) {
 		Player p = players.get(userID);
 		if(p != null)
@@ -0,0 +1,95 @@
+package no.uio.kulu;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+
+/* RGBConverter.java
+
+   Converts the Kinect's RGB24 camera image into opaque ARGB pixels.
+
+   Used by both the TrackerPanel and the gesture GUI's CameraPanel. Instead
+   of three absolute get() calls per pixel, the bytes are moved out of the
+   (direct) ByteBuffer a few rows at a time with one bulk get(), and
+   converted from a small scratch array that stays in the CPU cache. The
+   result can be written straight into the DataBufferInt of a reusable
+   image, so nothing has to be allocated or copied with setRGB() per frame.
+
+   A converter keeps its own scratch array, so each thread needs its own
+   converter.
+ */
+public class RGBConverter
+{
+	private static final int ROWS_PER_CHUNK = 8;   // rows moved out of the ByteBuffer per bulk get()
+
+	private final int width, height;
+	private byte[] chunk;   // scratch for the bulk transfers
+
+
+	public RGBConverter(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		chunk = new byte[width * 3 * ROWS_PER_CHUNK];
+	}
+
+
+	public BufferedImage createImage()
+	// an image the converter can write into directly
+	{  return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);  }
+
+
+	public void convert(ByteBuffer pixelsRGB, BufferedImage image)
+	/* convert the RGB24 buffer into the pixels of image, a TYPE_INT_ARGB
+	   (or TYPE_INT_RGB) image of the converter's size */
+	{  convert(pixelsRGB, ((DataBufferInt) image.getRaster().getDataBuffer()).getData());  }
+
+
+	public void convert(ByteBuffer pixelsRGB, int[] argb)
+	/* convert the RGB24 buffer into ARGB pixels, starting at the buffer's
+	   first byte; the buffer's position is left unchanged */
+	{
+		int pos = pixelsRGB.position();
+		pixelsRGB.position(0);
+		int numPixels = width * height;
+		int chunkPixels = chunk.length / 3;
+		for (int i = 0; i < numPixels; i += chunkPixels) {
+			int n = Math.min(chunkPixels, numPixels - i);
+			pixelsRGB.get(chunk, 0, n*3);
+			convert(chunk, 0, argb, i, n);
+		}
+		pixelsRGB.position(pos);
+	}  // end of convert()
+
+
+	public void convert(byte[] pixelsRGB, int[] argb)
+	// convert an array of RGB24 bytes into ARGB pixels
+	{  convert(pixelsRGB, 0, argb, 0, width * height);  }
+
+
+	public static void convert(byte[] pixelsRGB, int rgbIdx, int[] argb, int argbIdx, int n)
+	// convert n pixels, starting at byte rgbIdx of pixelsRGB and pixel argbIdx of argb
+	{
+		int end = argbIdx + n;
+		for (int i = argbIdx; i < end; i++) {
+			argb[i] = toARGB(pixelsRGB, rgbIdx);
+			rgbIdx += 3;
+		}
+	}  // end of convert()
+
+
+	public static int toARGB(byte[] pixelsRGB, int rgbIdx)
+	// the opaque ARGB value of the RGB24 pixel starting at byte rgbIdx
+	{
+		return 0xFF000000 | ((pixelsRGB[rgbIdx] & 0xFF) << 16) |
+				((pixelsRGB[rgbIdx+1] & 0xFF) << 8) | (pixelsRGB[rgbIdx+2] & 0xFF);
+	}
+
+
+	public int getWidth()
+	{  return width;  }
+
+	public int getHeight()
+	{  return height;  }
+
+} // end of RGBConverter class
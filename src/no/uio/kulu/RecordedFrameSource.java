@@ -0,0 +1,190 @@
+package no.uio.kulu;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.OpenNI.Context;
+import org.OpenNI.Point3D;
+
+/* RecordedFrameSource.java
+
+   Plays back a recording made by FrameRecorder. The segment files are
+   memory-mapped read-only, so a frame's maps are copied straight from the
+   page cache into the Frame's arrays, without any reads or buffers in
+   between. The playback loops when it reaches the end.
+
+   The recording holds the tracked users and skeletons of each frame, so the
+   user events are worked out from the changes between frames: a user who
+   appears is detected, one who disappears is lost, and one who gets a
+   skeleton is calibrated.
+
+   Frames are played at the recorded rate times the speed, or as fast as they
+   are asked for if the speed is 0. They are paced by the default Clock.
+ */
+public class RecordedFrameSource implements FrameSource
+{
+	private static final float FOCAL_LENGTH = 525;   // Kinect depth camera focal length (pixels)
+
+	private File dir;
+	private int width, height, frameBytes;
+	private List<ByteBuffer> frames = new ArrayList<ByteBuffer>();   // one read-only view per frame
+
+	private List<UserListener> listeners = new ArrayList<UserListener>();
+	private volatile double speed;
+	private Clock clock = Clock.getDefault();
+
+	private int current = -1;          // index of the frame being played
+	private long startTimestamp;       // recorded timestamp and wall clock time
+	private long startNanos;           //   when the playback was last (re)started
+	private UserChanges userChanges = new UserChanges();
+
+
+	public RecordedFrameSource(File dir, double speed) throws IOException
+	{
+		this.dir = dir;
+		this.speed = speed;
+		for (int n = 0; FrameFile.segmentFile(dir, n).exists(); n++)
+			mapSegment(FrameFile.segmentFile(dir, n));
+		if (frames.isEmpty())
+			throw new IOException("No recorded frames in " + dir);
+		System.out.println("Playing " + frames.size() + " frames from " + dir);
+	} // end of RecordedFrameSource()
+
+
+	private void mapSegment(File file) throws IOException
+	// map the segment and add a view of each of its frames
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			map.order(FrameFile.ORDER);    // the mapping stays valid once the file is closed
+			if (raf.length() < FrameFile.SEGMENT_HEADER || map.getLong(0) != FrameFile.SEGMENT_MAGIC)
+				throw new IOException(file + " is not a frame recording");
+			if (map.getInt(8) != FrameFile.VERSION)
+				throw new IOException(file + " has an unknown version");
+
+			int w = map.getInt(FrameFile.SEG_WIDTH);
+			int h = map.getInt(FrameFile.SEG_HEIGHT);
+			if (frames.isEmpty()) {
+				width = w;
+				height = h;
+				frameBytes = map.getInt(FrameFile.SEG_FRAME_BYTES);
+			}
+			else if (w != width || h != height)
+				throw new IOException(file + " has a different frame size");
+
+			// a recording that wasn't closed may be longer than its frame count
+			long numFrames = Math.min(map.getInt(FrameFile.SEG_NUM_FRAMES),
+					(raf.length() - FrameFile.SEGMENT_HEADER) / frameBytes);
+			for (int i = 0; i < numFrames; i++) {
+				ByteBuffer rec = FrameFile.slice(map, FrameFile.SEGMENT_HEADER + i*frameBytes, frameBytes);
+				if (rec.getInt(0) == FrameFile.FRAME_MAGIC)
+					frames.add(rec);
+			}
+		}
+		finally {
+			raf.close();
+		}
+	} // end of mapSegment()
+
+
+	public int getWidth()
+	{  return width;  }
+
+	public int getHeight()
+	{  return height;  }
+
+	public Context getContext()
+	{  return null;  }
+
+	public int getNumFrames()
+	{  return frames.size();  }
+
+	public void setSpeed(double speed)
+	/* 1 for the recorded rate, 0 for as fast as possible */
+	{
+		this.speed = speed;
+		startNanos = 0;    // restart the timing from the next frame
+	}
+
+	public void addUserListener(UserListener listener)
+	{  listeners.add(listener);  }
+
+	public void addContextListener(ContextListener listener)
+	{}    // there is no context to replace
+
+
+	public void waitForUpdate()
+	/* move on to the next frame, waiting until it is due, and report the
+	   changes in the users */
+	{
+		current++;
+		if (current == frames.size()) {    // loop, and lose everyone first
+			current = 0;
+			userChanges.loseAll(listeners);
+		}
+		ByteBuffer rec = frames.get(current);
+		waitUntilDue(rec.getLong(FrameFile.FRM_TIMESTAMP));
+		userChanges.update(rec, listeners);
+	} // end of waitForUpdate()
+
+
+	public boolean waitForUpdate(long timeoutMillis)
+	// the next frame is never held up
+	{
+		waitForUpdate();
+		return true;
+	}
+
+	public boolean reinitialize()
+	{  return false;  }
+
+
+	private void waitUntilDue(long timestamp)
+	{
+		double s = speed;
+		if (s <= 0)
+			return;
+		if (startNanos == 0 || timestamp < startTimestamp) {   // (re)start the timing
+			startNanos = clock.nanoTime();
+			startTimestamp = timestamp;
+			return;
+		}
+		try {
+			clock.sleepUntil(startNanos + (long) ((timestamp - startTimestamp) * 1000 / s));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	} // end of waitUntilDue()
+
+
+	public void readFrame(Frame frame)
+	/* copy the current frame out of the mapping */
+	{  FrameFile.readFrame(frames.get(current), frame);  }
+
+
+	public Point3D convertRealWorldToProjective(Point3D point)
+	// a pinhole camera with the Kinect's focal length
+	{
+		float z = point.getZ();
+		if (z == 0)
+			return new Point3D(width/2, height/2, 0);
+		return new Point3D(width/2 + point.getX() * FOCAL_LENGTH / z,
+				height/2 - point.getY() * FOCAL_LENGTH / z, z);
+	}
+
+
+	public void release()
+	{  frames.clear();  }    // the mappings go once they are garbage collected
+
+	public String toString()
+	{  return "recording " + dir + ", frame " + current + " of " + frames.size();  }
+
+} // end of RecordedFrameSource class
@@ -0,0 +1,292 @@
+package no.uio.kulu;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.OpenNI.Context;
+import org.OpenNI.Point3D;
+
+/* RingFrameSource.java
+
+   Reads the frames written by a SensorHost in a child JVM, through a
+   FrameRing in a memory-mapped file, so OpenNI and NITE don't run in the
+   game's process. A frame is copied straight from the mapping into the
+   Frame's arrays. The first host makes the ring, at the size of its
+   frames, so the source waits for it before it knows its own size.
+
+   The source supervises the host: if it exits, or writes no frames for
+   FRAME_TIMEOUT ms (START_TIMEOUT ms after starting), it is killed and a new
+   one is started, and everyone is lost in the meantime. The game just sees a
+   pause in the frames. A host that is killed but doesn't die (Java 7 can
+   only ask it to) stops writing once the ring is handed to the next one.
+
+   A host that fails within QUICK_FAILURE_TIME ms of starting (e.g. because
+   there is no Kinect) is probably going to fail again, so the next one is
+   started after a delay, which doubles with each quick failure in a row.
+   After MAX_QUICK_FAILURES of them the source gives up, and no more frames
+   come.
+
+   The user events are worked out from the changes between frames, as for a
+   recording. There is no OpenNI context in this process, so there is no
+   hand tracking.
+ */
+public class RingFrameSource implements FrameSource
+{
+	private static final float FOCAL_LENGTH = 525;   // Kinect depth camera focal length (pixels)
+
+	private static final long START_TIMEOUT = 15000;  // ms for a new host to write its first frame
+	private static final long FRAME_TIMEOUT = 2000;   // ms without a frame before a host is restarted
+	private static final long POLL_INTERVAL = 2;      // ms between looks at the ring
+
+	private static final long QUICK_FAILURE_TIME = 30000;   // ms; a host failing sooner failed quickly
+	private static final long RESTART_DELAY = 500;          // ms before restarting after the first quick failure
+	private static final long MAX_RESTART_DELAY = 8000;
+	private static final int MAX_QUICK_FAILURES = 6;        // in a row, before giving up
+
+	private File ringFile;
+	private FrameRing ring;
+	private List<String> hostArgs;
+	private Process host;      // null while waiting to start the next one
+	private int numStarts;     // also the number of the current host
+	private long hostStartTime;
+	private int numQuickFailures;    // hosts in a row that failed soon after starting
+	private long restartTime;        // when to start the next host; Long.MAX_VALUE once given up
+
+	private List<UserListener> listeners = new ArrayList<UserListener>();
+	private UserChanges userChanges = new UserChanges();
+
+	private long lastSeq;          // sequence number of the last frame reported
+	private long numTornReads;     // frames that couldn't be copied whole, so were skipped
+	private long lastFrameTime;    // when it arrived, or when the host was started
+	private long timeout;          // current limit on the time between them
+
+
+	public RingFrameSource(File ringFile, List<String> hostArgs) throws IOException
+	/* start a host with the given SensorHost arguments (after the ring file
+	   and host number), and wait for it to make the ring in ringFile, which
+	   should be empty */
+	{
+		this.ringFile = ringFile;
+		this.hostArgs = hostArgs;
+		lastSeq = -1;
+		startHost();
+		waitForRing();
+	} // end of RingFrameSource()
+
+
+	private void waitForRing() throws IOException
+	// supervise the hosts as usual until one of them has made the ring
+	{
+		while (true) {
+			if (ringFile.length() >= FrameRing.HEADER) {
+				try {
+					ring = FrameRing.open(ringFile);
+					return;
+				}
+				catch (IOException e) {}    // not ready yet
+			}
+			checkHost();
+			if (hasGivenUp())
+				throw new IOException("No sensor host could make the frame ring " + ringFile);
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			}
+			catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting for the sensor host");
+			}
+		}
+	} // end of waitForRing()
+
+
+	private void startHost() throws IOException
+	// run SensorHost in a new JVM with the same class and library paths
+	{
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		String libPath = System.getProperty("java.library.path");
+		if (libPath != null)
+			cmd.add("-Djava.library.path=" + libPath);
+		cmd.add("-Djava.awt.headless=true");
+		cmd.add(SensorHost.class.getName());
+		cmd.add(ringFile.getPath());
+		cmd.add(Integer.toString(numStarts + 1));
+		cmd.addAll(hostArgs);
+
+		ProcessBuilder pb = new ProcessBuilder(cmd);
+		pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		if (ring != null)
+			ring.setHost(numStarts + 1);    // else the host makes the ring as its own
+		host = pb.start();     // its input stays a pipe, which closes if this process dies
+		numStarts++;
+		hostStartTime = System.currentTimeMillis();
+		lastFrameTime = hostStartTime;
+		timeout = START_TIMEOUT;
+	} // end of startHost()
+
+
+	private void restartHost(String reason)
+	// kill the host, and start another one now, or after a delay if it failed quickly
+	{
+		host.destroy();
+		host = null;
+		if (ring != null)
+			ring.setHost(0);    // no one, until the next host is started
+		userChanges.loseAll(listeners);
+		scheduleRestart(reason, System.currentTimeMillis() - hostStartTime < QUICK_FAILURE_TIME);
+	} // end of restartHost()
+
+
+	private void scheduleRestart(String reason, boolean isQuick)
+	{
+		long delay = 0;
+		if (!isQuick)
+			numQuickFailures = 0;
+		else {
+			numQuickFailures++;
+			delay = Math.min(RESTART_DELAY << (numQuickFailures - 1), MAX_RESTART_DELAY);
+		}
+		if (numQuickFailures >= MAX_QUICK_FAILURES) {
+			System.out.println("Sensor host " + reason + "; giving up after " +
+					numQuickFailures + " quick failures in a row");
+			restartTime = Long.MAX_VALUE;
+		}
+		else {
+			System.out.println("Sensor host " + reason + "; restarting it" +
+					((delay > 0) ? " in " + delay + " ms" : ""));
+			restartTime = System.currentTimeMillis() + delay;
+		}
+	} // end of scheduleRestart()
+
+
+	public int getWidth()
+	{  return ring.getWidth();  }
+
+	public int getHeight()
+	{  return ring.getHeight();  }
+
+	public Context getContext()
+	{  return null;  }
+
+	public int getNumRestarts()
+	{  return numStarts - 1;  }
+
+	public void addUserListener(UserListener listener)
+	{  listeners.add(listener);  }
+
+	public void addContextListener(ContextListener listener)
+	{}    // there is no context to replace
+
+
+	public void waitForUpdate()
+	/* wait for the host to write a new frame, restarting it if it has died
+	   or stalled, and report the changes in the users */
+	{
+		while (!waitForUpdate(FRAME_TIMEOUT) && !Thread.currentThread().isInterrupted())
+			;
+	} // end of waitForUpdate()
+
+
+	public boolean waitForUpdate(long timeoutMillis)
+	// as above, but give up after timeoutMillis
+	{
+		long start = System.currentTimeMillis();
+		while (true) {
+			long seq = ring.getNewest();
+			if (seq > lastSeq) {
+				lastSeq = seq;
+				lastFrameTime = System.currentTimeMillis();
+				timeout = FRAME_TIMEOUT;
+				if (ring.isComplete(seq))     // else the users are updated with the next frame
+					userChanges.update(ring.slot(seq), listeners);
+				return true;
+			}
+			checkHost();
+			if (System.currentTimeMillis() - start >= timeoutMillis)
+				return false;
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	} // end of waitForUpdate()
+
+
+	public boolean reinitialize()
+	// the host is already restarted when it stalls
+	{  return false;  }
+
+
+	private void checkHost()
+	// restart the host if it has died or stalled, or start the next one when it's time
+	{
+		if (host == null) {
+			if (System.currentTimeMillis() >= restartTime) {
+				try {
+					startHost();
+				}
+				catch (IOException e) {
+					scheduleRestart("could not be started: " + e, true);
+				}
+			}
+			return;
+		}
+		try {
+			int status = host.exitValue();
+			restartHost("exited with status " + status);
+			return;
+		}
+		catch (IllegalThreadStateException e) {}    // still running
+
+		if (System.currentTimeMillis() - lastFrameTime > timeout)
+			restartHost("wrote no frames for " + timeout + " ms");
+	} // end of checkHost()
+
+
+	public void readFrame(Frame frame)
+	/* copy the newest frame out of the ring; if the host kept overwriting
+	   it, frame is marked invalid, since it may be partly copied */
+	{
+		frame.isValid = (ring.read(frame) >= 0);
+		if (!frame.isValid)
+			numTornReads++;
+	}
+
+
+	public Point3D convertRealWorldToProjective(Point3D point)
+	// a pinhole camera with the Kinect's focal length
+	{
+		int width = ring.getWidth();
+		int height = ring.getHeight();
+		float z = point.getZ();
+		if (z == 0)
+			return new Point3D(width/2, height/2, 0);
+		return new Point3D(width/2 + point.getX() * FOCAL_LENGTH / z,
+				height/2 - point.getY() * FOCAL_LENGTH / z, z);
+	}
+
+
+	public boolean hasGivenUp()
+	// true once the hosts have failed too often to start another
+	{  return restartTime == Long.MAX_VALUE;  }
+
+
+	public void release()
+	{
+		if (host != null)
+			host.destroy();
+		ringFile.delete();
+	}
+
+	public String toString()
+	{  return "sensor host (" + getNumRestarts() + " restarts" + (hasGivenUp() ? ", given up" : "") + ", " + numTornReads + " frames skipped), " + ring;  }
+
+} // end of RingFrameSource class
@@ -0,0 +1,187 @@
+package no.uio.kulu;
+
+/* SensorHealthMonitor.java
+
+   Keeps the frame IDs and timestamps of the depth map and RGB image of the
+   last WINDOW acquired frames, and works out from them how well the sensor
+   is delivering:
+
+     - the delivered rate, from the times the frames were acquired, and the
+       sensor's rate, from its depth timestamps
+     - the gaps: depth frame IDs that were never acquired, and the longest
+       interval between two depth timestamps
+     - the jitter: the standard deviation of the intervals between
+       acquisitions
+     - the skew between the depth and RGB timestamps of each frame, which
+       screenUsers() treats as the same moment, and the frames where one
+       stream slipped against the other
+
+   frameAcquired() is called by the sensor loop for every frame, and only
+   stores into preallocated arrays. The windowed figures are worked out
+   when they are asked for, from any thread, so they can be read while the
+   game runs. The totals since the start are kept too.
+ */
+public class SensorHealthMonitor
+{
+	static final int WINDOW = 64;        // frames, about 2 s at 30 fps; a power of 2
+	private static final int MASK = WINDOW - 1;
+
+	// the window, oldest at (next - count) & MASK
+	private final int[] frameIds = new int[WINDOW];
+	private final long[] timestamps = new long[WINDOW];      // depth (microseconds)
+	private final long[] skews = new long[WINDOW];           // RGB - depth timestamp (microseconds)
+	private final long[] acquiredNanos = new long[WINDOW];
+	private int next, count;
+
+	// since the start
+	private long numFrames, numMissing, numRGBSlips;
+	private long maxSkew;    // largest |skew| (microseconds)
+	private int rgbOffset;   // RGB frame ID - depth frame ID of the last frame
+
+
+	public synchronized void frameAcquired(Frame frame)
+	// record the frame; no allocation
+	{
+		int offset = frame.rgbFrameId - frame.frameId;
+		if (count > 0 && frame.frameId < frameIds[(next - 1) & MASK])
+			count = 0;    // the IDs restart when a recording loops, or the sensor is opened again
+		else if (count > 0) {
+			int gap = frame.frameId - frameIds[(next - 1) & MASK];
+			if (gap > 1)
+				numMissing += gap - 1;
+			if (offset != rgbOffset)
+				numRGBSlips++;
+		}
+		rgbOffset = offset;
+		long skew = frame.rgbTimestamp - frame.timestamp;
+		frameIds[next] = frame.frameId;
+		timestamps[next] = frame.timestamp;
+		skews[next] = skew;
+		acquiredNanos[next] = frame.acquiredNanos;
+		next = (next + 1) & MASK;
+		if (count < WINDOW)
+			count++;
+
+		numFrames++;
+		if (Math.abs(skew) > maxSkew)
+			maxSkew = Math.abs(skew);
+	}  // end of frameAcquired()
+
+
+	private int at(int i)
+	// the index of the i'th frame of the window, 0 for the oldest
+	{  return (next - count + i) & MASK;  }
+
+
+	// --------------- the window ----------------------------
+
+	public synchronized int getWindowFrames()
+	{  return count;  }
+
+	public synchronized double getDeliveredFps()
+	/* frames acquired per second */
+	{
+		if (count < 2)
+			return 0;
+		long nanos = acquiredNanos[at(count-1)] - acquiredNanos[at(0)];
+		return (nanos <= 0) ? 0 : (count - 1) * 1e9 / nanos;
+	}
+
+	public synchronized double getSensorFps()
+	/* frames per second produced by the sensor, from the depth frame IDs
+	   and timestamps, counting the frames that weren't acquired */
+	{
+		if (count < 2)
+			return 0;
+		long micros = timestamps[at(count-1)] - timestamps[at(0)];
+		int frames = frameIds[at(count-1)] - frameIds[at(0)];
+		return (micros <= 0) ? 0 : frames * 1e6 / micros;
+	}
+
+	public synchronized int getMissingFrames()
+	/* depth frame IDs skipped within the window */
+	{
+		int missing = 0;
+		for (int i = 1; i < count; i++) {
+			int gap = frameIds[at(i)] - frameIds[at(i-1)];
+			if (gap > 1)
+				missing += gap - 1;
+		}
+		return missing;
+	}
+
+	public synchronized double getMaxGapMillis()
+	/* the longest interval between two depth timestamps */
+	{
+		long max = 0;
+		for (int i = 1; i < count; i++)
+			max = Math.max(max, timestamps[at(i)] - timestamps[at(i-1)]);
+		return max / 1e3;
+	}
+
+	public synchronized double getJitterMillis()
+	/* standard deviation of the intervals between acquisitions */
+	{
+		if (count < 3)
+			return 0;
+		double sum = 0, sumSq = 0;
+		for (int i = 1; i < count; i++) {
+			double ms = (acquiredNanos[at(i)] - acquiredNanos[at(i-1)]) / 1e6;
+			sum += ms;
+			sumSq += ms*ms;
+		}
+		int n = count - 1;
+		double mean = sum / n;
+		return Math.sqrt(Math.max(0, sumSq/n - mean*mean));
+	}
+
+	public synchronized double getMeanSkewMillis()
+	/* mean of RGB timestamp - depth timestamp; positive if the RGB image is newer */
+	{
+		if (count == 0)
+			return 0;
+		long sum = 0;
+		for (int i = 0; i < count; i++)
+			sum += skews[at(i)];
+		return sum / 1e3 / count;
+	}
+
+	public synchronized double getMaxSkewMillis()
+	/* the largest |RGB timestamp - depth timestamp| */
+	{
+		long max = 0;
+		for (int i = 0; i < count; i++)
+			max = Math.max(max, Math.abs(skews[at(i)]));
+		return max / 1e3;
+	}
+
+
+	// --------------- since the start ----------------------------
+
+	public synchronized long getNumFrames()
+	{  return numFrames;  }
+
+	public synchronized long getTotalMissingFrames()
+	{  return numMissing;  }
+
+	public synchronized long getNumRGBSlips()
+	/* frames where one of the depth and RGB streams moved on by a
+	   different number of frames from the other, so it skipped or repeated
+	   a frame */
+	{  return numRGBSlips;  }
+
+	public synchronized double getLargestSkewMillis()
+	{  return maxSkew / 1e3;  }
+
+
+	public synchronized String toString()
+	{
+		return String.format("sensor health over %d frames: delivered %.1f fps, sensor %.1f fps; "
+				+ "missing %d, longest gap %.1f ms; jitter %.2f ms; depth/RGB skew mean %.1f ms, max %.1f ms. "
+				+ "Since the start: %d frames, missing %d, depth/RGB slips %d, largest skew %.1f ms",
+				count, getDeliveredFps(), getSensorFps(), getMissingFrames(), getMaxGapMillis(),
+				getJitterMillis(), getMeanSkewMillis(), getMaxSkewMillis(),
+				numFrames, numMissing, numRGBSlips, getLargestSkewMillis());
+	}
+
+} // end of SensorHealthMonitor class
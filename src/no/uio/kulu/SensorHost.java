@@ -0,0 +1,117 @@
+package no.uio.kulu;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.OpenNI.StatusException;
+
+/* SensorHost.java
+
+   The main class of the child JVM started by RingFrameSource. It runs
+   OpenNI and NITE (or another frame source) and writes every frame into
+   a FrameRing file, so a crash in the native code only takes this process
+   down, and the game can start another one. The game gives an empty file
+   for the ring, and the first host makes the ring there at the size of its
+   frames; the game waits for it.
+
+   Usage: SensorHost <ring file> <host number> [-synthetic <users> [-fps <rate>] | -oni <file> [-speed <speed>]]
+   With no source option the Kinect is used.
+
+   The host exits when its standard input is closed, which happens when
+   the game exits or dies, so it never outlives the game. It also exits once
+   the game has handed the ring to another host.
+ */
+public class SensorHost
+{
+
+	public static void main(String args[])
+	{
+		if (args.length < 2) {
+			System.out.println("Usage: SensorHost <ring file> <host number> [-synthetic <users> [-fps <rate>] | "
+					+ "-oni <file> [-speed <speed>]]");
+			System.exit(1);
+		}
+		File ringFile = new File(args[0]);
+		int hostID = Integer.parseInt(args[1]);
+		int numSynthetic = -1;
+		int fps = 30;
+		String oniFnm = null;
+		double speed = 1;
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].equals("-synthetic") && i+1 < args.length)
+				numSynthetic = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-fps") && i+1 < args.length)
+				fps = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-oni") && i+1 < args.length)
+				oniFnm = args[++i];
+			else if (args[i].equals("-speed") && i+1 < args.length)
+				speed = Double.parseDouble(args[++i]);
+		}
+
+		watchParent();
+		FrameSource source;
+		if (numSynthetic >= 0)
+			source = new SyntheticFrameSource(numSynthetic, fps);
+		else
+			source = new OpenNIFrameSource(oniFnm, speed);   // the Kinect if oniFnm is null
+
+		FrameRing ring = null;
+		try {
+			ring = FrameRing.open(ringFile);     // made by an earlier host
+		}
+		catch (IOException e) {
+			try {
+				ring = FrameRing.create(ringFile, source.getWidth(), source.getHeight(), hostID);
+			}
+			catch (IOException e2) {
+				System.out.println("Sensor host: " + e2);
+				System.exit(1);
+			}
+		}
+		if (source.getWidth() != ring.getWidth() || source.getHeight() != ring.getHeight()) {
+			System.out.println("Sensor host: the frames are " + source.getWidth() + "x" +
+					source.getHeight() + ", but the ring is for " + ring.getWidth() + "x" + ring.getHeight());
+			System.exit(1);
+		}
+		System.out.println("Sensor host writing frames to " + ringFile);
+
+		Frame frame = new Frame(source.getWidth(), source.getHeight());
+		try {
+			while (true) {
+				source.waitForUpdate();
+				source.readFrame(frame);
+				if (!ring.write(frame, hostID)) {
+					System.out.println("Sensor host " + hostID + " has been replaced");
+					break;
+				}
+			}
+		}
+		catch (StatusException e) {
+			System.out.println("Sensor host: " + e);
+		}
+		finally {
+			source.release();
+		}
+		System.exit(1);
+	}  // end of main()
+
+
+	private static void watchParent()
+	// exit once standard input is closed
+	{
+		Thread watcher = new Thread("Parent watcher") {
+			public void run()
+			{
+				try {
+					while (System.in.read() >= 0)
+						;
+				}
+				catch (IOException e) {}
+				System.exit(0);
+			}
+		};
+		watcher.setDaemon(true);
+		watcher.start();
+	}  // end of watchParent()
+
+} // end of SensorHost class
@@ -0,0 +1,202 @@
+package no.uio.kulu;
+
+import org.OpenNI.StatusException;
+
+/* SensorWatchdog.java
+
+   Waits for the FrameSource's frames on behalf of the sensor loop, WAIT_TIME
+   ms at a time, so the loop never blocks for long, and keeps track of the
+   stalls: a stall starts once no frame has come for STALL_TIME ms
+   (START_TIME ms before the first frame), and ends with the next frame. An
+   error from the source is part of a stall too, rather than the end of the
+   game.
+
+   After REINIT_TIME ms of a stall the source is re-initialized on a
+   background thread, and again every REINIT_TIME ms that the stall goes on;
+   the watchdog leaves the source alone while that happens.
+
+   The number of stalls, their total and longest durations, the stalls per
+   minute, the errors and the re-initializations are the watchdog's metrics.
+   Stalls are measured in real time, whatever the game's Clock.
+ */
+public class SensorWatchdog
+{
+	static final long WAIT_TIME = 33;       // ms, the longest wait for a frame
+	static final long STALL_TIME = 250;     // ms without a frame that make a stall
+	static final long START_TIME = 5000;    //   before the first frame
+	static final long REINIT_TIME = 3000;   // ms of a stall before each re-initialization
+
+	private FrameSource source;
+
+	private long startNanos;
+	private long lastFrameNanos;      // when the last frame came, or the start
+	private long numFrames;
+	private volatile boolean isStalled;
+	private long lastReinitNanos;     // start of the last re-initialization in this stall
+	private volatile boolean isReinitializing;
+	private StatusException lastError;   // the error reported in this stall
+
+	// metrics
+	private volatile long numStalls, totalStallMillis, longestStallMillis;
+	private volatile long numErrors;
+	private volatile long numReinits, numFailedReinits;
+
+
+	public SensorWatchdog(FrameSource source)
+	{
+		this.source = source;
+		startNanos = System.nanoTime();
+		lastFrameNanos = startNanos;
+	} // end of SensorWatchdog()
+
+
+	public boolean waitForUpdate()
+	/* called by the sensor loop in place of source.waitForUpdate(); false
+	   if there was no frame within WAIT_TIME ms, so the loop can do
+	   something else */
+	{
+		boolean isReady = false;
+		if (isReinitializing)
+			pause(WAIT_TIME);
+		else {
+			try {
+				isReady = source.waitForUpdate(WAIT_TIME);
+			}
+			catch (StatusException e) {
+				numErrors++;
+				if (lastError == null)
+					System.out.println("Sensor error: " + e);
+				lastError = e;
+				pause(WAIT_TIME);    // errors may come without any waiting
+			}
+		}
+
+		long now = System.nanoTime();
+		if (isReady)
+			frameArrived(now);
+		else
+			noFrame(now);
+		return isReady;
+	} // end of waitForUpdate()
+
+
+	private void frameArrived(long now)
+	{
+		if (isStalled) {
+			long millis = (now - lastFrameNanos) / 1000000;
+			totalStallMillis += millis;
+			if (millis > longestStallMillis)
+				longestStallMillis = millis;
+			isStalled = false;
+			lastError = null;
+			System.out.println("Sensor frames are back after " + millis + " ms");
+		}
+		numFrames++;
+		lastFrameNanos = now;
+	} // end of frameArrived()
+
+
+	private void noFrame(long now)
+	{
+		long millis = (now - lastFrameNanos) / 1000000;
+		if (!isStalled && millis >= ((numFrames == 0) ? START_TIME : STALL_TIME)) {
+			isStalled = true;
+			numStalls++;
+			lastReinitNanos = now;
+			System.out.println("No frames from the sensor for " + millis + " ms");
+		}
+		if (isStalled && !isReinitializing && (now - lastReinitNanos) / 1000000 >= REINIT_TIME) {
+			lastReinitNanos = now;
+			reinitialize();
+		}
+	} // end of noFrame()
+
+
+	private void reinitialize()
+	// re-initialize the source on another thread
+	{
+		isReinitializing = true;
+		numReinits++;
+		Thread t = new Thread("Sensor re-initialization") {
+			public void run()
+			{
+				try {
+					if (!source.reinitialize())
+						numFailedReinits++;
+				}
+				finally {
+					isReinitializing = false;
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	} // end of reinitialize()
+
+
+	private void pause(long millis)
+	{
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	} // end of pause()
+
+
+	public boolean isStalled()
+	{  return isStalled;  }
+
+	public boolean isReinitializing()
+	{  return isReinitializing;  }
+
+	public long getStallMillis()
+	// the length of the current stall so far, 0 if there is none
+	{  return isStalled ? (System.nanoTime() - lastFrameNanos) / 1000000 : 0;  }
+
+	public String getStallMessage()
+	// for showing on the screen during a stall
+	{
+		return "Waiting for the sensor (" + getStallMillis()/1000 + " s)" +
+				(isReinitializing ? ", restarting it" : "");
+	}
+
+
+	// --------------- metrics ----------------------------
+
+	public long getNumStalls()
+	{  return numStalls;  }
+
+	public long getTotalStallMillis()
+	/* the time spent in finished stalls */
+	{  return totalStallMillis;  }
+
+	public long getLongestStallMillis()
+	{  return longestStallMillis;  }
+
+	public double getStallsPerMinute()
+	{
+		long nanos = System.nanoTime() - startNanos;
+		return (nanos <= 0) ? 0 : numStalls * 60e9 / nanos;
+	}
+
+	public long getNumErrors()
+	{  return numErrors;  }
+
+	public long getNumReinits()
+	{  return numReinits;  }
+
+	public long getNumFailedReinits()
+	{  return numFailedReinits;  }
+
+	public String toString()
+	{
+		return String.format("sensor stalls %d (%.2f per minute), stalled %d ms, longest %d ms%s; "
+				+ "errors %d; re-initializations %d, failed %d",
+				getNumStalls(), getStallsPerMinute(), getTotalStallMillis(),
+				getLongestStallMillis(), isStalled ? ", stalled now for " + getStallMillis() + " ms" : "",
+				getNumErrors(), getNumReinits(), getNumFailedReinits());
+	}
+
+} // end of SensorWatchdog class
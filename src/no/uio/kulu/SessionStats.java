@@ -0,0 +1,157 @@
+package no.uio.kulu;
+
+import java.util.Locale;
+
+import org.OpenNI.Point3D;
+
+/* SessionStats.java
+
+   Summary statistics of one recorded session, gathered by listening to
+   the skeleton events while BatchProcessor runs the session's frames. The
+   times are the recorded frame timestamps, set by the processor before
+   each frame's events are sent, so they don't depend on how fast the
+   session is processed.
+ */
+public class SessionStats implements SkeletonEvent
+{
+	static final String CSV_HEADER = "session,frames,recorded_s,processing_s,speedup,"
+			+ "users,calibrated,mean_calibration_s,max_calibration_s,mean_presence_s,"
+			+ "max_users,skeleton_updates";
+
+	private String name;
+	private long time;                 // timestamp of the current frame (microseconds)
+	private long firstTime = -1, lastTime;
+	private long numFrames;
+	private long processingNanos;
+
+	private long[] observedAt = new long[Frame.MAX_USERS];   // -1 if not present
+	private boolean[] calibrated = new boolean[Frame.MAX_USERS];
+	private int numPresent, maxPresent;
+	private int numUsers, numCalibrated;
+	private long calibrationMicros, maxCalibrationMicros, presenceMicros;
+	private long numUpdates;
+
+
+	public SessionStats(String name)
+	{
+		this.name = name;
+		for (int i = 0; i < Frame.MAX_USERS; i++)
+			observedAt[i] = -1;
+	}
+
+
+	void startFrame(long timestamp)
+	// called before each frame's events are sent
+	{
+		time = timestamp;
+		if (firstTime < 0)
+			firstTime = timestamp;
+		lastTime = timestamp;
+		numFrames++;
+	}  // end of startFrame()
+
+
+	void finish(long processingNanos)
+	// count the users still present at the end of the session
+	{
+		this.processingNanos = processingNanos;
+		for (int id = 1; id < Frame.MAX_USERS; id++)
+			if (observedAt[id] >= 0)
+				userLost(id);
+	}  // end of finish()
+
+
+	// ------------------ user events ---------------------
+
+	public void userObserved(int id)
+	{
+		if (id <= 0 || id >= Frame.MAX_USERS || observedAt[id] >= 0)
+			return;
+		observedAt[id] = time;
+		calibrated[id] = false;
+		numUsers++;
+		numPresent++;
+		maxPresent = Math.max(maxPresent, numPresent);
+	}  // end of userObserved()
+
+
+	public void userCalibrated(int id)
+	{
+		if (id <= 0 || id >= Frame.MAX_USERS || observedAt[id] < 0 || calibrated[id])
+			return;
+		calibrated[id] = true;
+		long micros = time - observedAt[id];
+		numCalibrated++;
+		calibrationMicros += micros;
+		maxCalibrationMicros = Math.max(maxCalibrationMicros, micros);
+	}  // end of userCalibrated()
+
+
+	public void userLost(int id)
+	{
+		if (id <= 0 || id >= Frame.MAX_USERS || observedAt[id] < 0)
+			return;
+		presenceMicros += time - observedAt[id];
+		observedAt[id] = -1;
+		numPresent--;
+	}  // end of userLost()
+
+
+	// ------------------ body parts ---------------------
+
+	public void updateHeadPosition(int userID, Point3D pivot, Point3D base, int angle)
+	{  numUpdates++;  }
+
+	public void updateBodyPosition(int userID, Point3D pivot, Point3D base, int angle)
+	{  numUpdates++;  }
+
+	public void updateFeetPosition(int userID, Point3D pivot, Point3D base, int angle)
+	{  numUpdates++;  }
+
+	public void updateLeftHandPosition(int userID, Point3D pivot, Point3D base, int angle)
+	{  numUpdates++;  }
+
+	public void updateRightHandPosition(int userID, Point3D pivot, Point3D base, int angle)
+	{  numUpdates++;  }
+
+
+	// ------------------ results ---------------------
+
+	public String getName()
+	{  return name;  }
+
+	public long getNumFrames()
+	{  return numFrames;  }
+
+	public double getRecordedSeconds()
+	{  return (firstTime < 0) ? 0 : (lastTime - firstTime) / 1e6;  }
+
+	public double getProcessingSeconds()
+	{  return processingNanos / 1e9;  }
+
+	public double getSpeedup()
+	// how many times faster than real time the session was processed
+	{  return (processingNanos == 0) ? 0 : getRecordedSeconds() / getProcessingSeconds();  }
+
+
+	String toCsv()
+	{
+		return String.format(Locale.ROOT,
+				"%s,%d,%.2f,%.2f,%.1f,%d,%d,%.2f,%.2f,%.2f,%d,%d",
+				name.replace(',', '_'), numFrames, getRecordedSeconds(), getProcessingSeconds(),
+				getSpeedup(), numUsers, numCalibrated,
+				(numCalibrated == 0) ? 0.0 : calibrationMicros / 1e6 / numCalibrated,
+				maxCalibrationMicros / 1e6,
+				(numUsers == 0) ? 0.0 : presenceMicros / 1e6 / numUsers,
+				maxPresent, numUpdates);
+	}  // end of toCsv()
+
+
+	public String toString()
+	{
+		return String.format("%s: %d frames, %.1f s in %.1f s (%.1fx); %d users, %d calibrated",
+				name, numFrames, getRecordedSeconds(), getProcessingSeconds(), getSpeedup(),
+				numUsers, numCalibrated);
+	}
+
+} // end of SessionStats class
@@ -0,0 +1,272 @@
+package no.uio.kulu;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.OpenNI.Point3D;
+
+/* SkeletonEventRecorder.java
+
+   Logs what the game layer is told: the user events and body part updates
+   sent to a SkeletonEvent listener, and optionally the user images sent to
+   a CameraListener. SkeletonEventReplayer sends them back to any listener,
+   at their recorded times, so PlayerController and Player.draw() can be
+   run without a sensor, depth maps or NITE.
+
+   The log is a stream of small records, so an evening's play comes to
+   megabytes. All values are big-endian (DataOutputStream):
+
+     header:   int MAGIC, int VERSION, int frame width, int frame height,
+               int image scale (0 if there are no images)
+     TIME:     byte type, int microseconds since the previous TIME record;
+               written before a record when at least a millisecond has gone by
+     OBSERVED, LOST, CALIBRATED:   byte type, byte user ID
+     HEAD, BODY, FEET, LEFT_HAND, RIGHT_HAND:
+               byte type, byte user ID, byte flags (HAS_PIVOT | HAS_BASE),
+               short x, y, z of the pivot and base (if present), short angle
+     IMAGE:    byte type, byte user ID, short x, y, width, height of the
+               user's bounds in the frame, int n, n bytes of a PNG of the
+               image inside them, shrunk by the image scale
+     NO_IMAGE: byte type, byte user ID   (the user left the camera image)
+
+   The points are projective, so they are stored to the nearest pixel (x, y)
+   and millimetre (z). Images are kept at most every IMAGE_INTERVAL ms for
+   each user. The times are those of the default Clock.
+ */
+public class SkeletonEventRecorder implements SkeletonEvent, CameraListener
+{
+	static final int MAGIC = 0x4B534556;   // "KSEV"
+	static final int VERSION = 1;
+
+	// record types
+	static final int TIME = 0, OBSERVED = 1, LOST = 2, CALIBRATED = 3;
+	static final int HEAD = 4, BODY = 5, FEET = 6, LEFT_HAND = 7, RIGHT_HAND = 8;
+	static final int IMAGE = 9, NO_IMAGE = 10;
+
+	// flags of a body part record
+	static final int HAS_PIVOT = 1, HAS_BASE = 2;
+
+	private static final long IMAGE_INTERVAL = 200;   // ms between the images of a user
+
+	private File file;
+	private DataOutputStream out;     // null once closed, or after a write error
+	private int imageScale;           // images are shrunk by this; 0 for no images
+	private Clock clock = Clock.getDefault();
+	private long lastTime;            // clock time of the last TIME record
+	private long numRecords, numImages;
+
+	private boolean[] observed = new boolean[Frame.MAX_USERS];
+	private long[] lastImageTime = new long[Frame.MAX_USERS];   // clock time
+	private boolean[] hasImage = new boolean[Frame.MAX_USERS];  // an image has been kept since the user appeared
+	private ByteArrayOutputStream png = new ByteArrayOutputStream();
+
+
+	public SkeletonEventRecorder(File file, int frameWidth, int frameHeight, int imageScale)
+			throws IOException
+	{
+		this.file = file;
+		this.imageScale = Math.max(imageScale, 0);
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64*1024));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(frameWidth);
+		out.writeInt(frameHeight);
+		out.writeInt(this.imageScale);
+		lastTime = clock.nanoTime();
+		System.out.println("Logging skeleton events to " + file);
+	} // end of SkeletonEventRecorder()
+
+
+	// ------------------ user events ---------------------
+
+	public synchronized void userObserved(int id)
+	{
+		if (id > 0 && id < Frame.MAX_USERS)
+			observed[id] = true;
+		writeUser(OBSERVED, id);
+	}
+
+	public synchronized void userLost(int id)
+	{
+		if (id > 0 && id < Frame.MAX_USERS)
+			observed[id] = false;
+		writeUser(LOST, id);
+	}
+
+	public synchronized void userCalibrated(int id)
+	{  writeUser(CALIBRATED, id);  }
+
+
+	// ------------------ body parts ---------------------
+
+	public synchronized void updateHeadPosition(int userID, Point3D pivot, Point3D base, int angle)
+	{  writePart(HEAD, userID, pivot, base, angle);  }
+
+	public synchronized void updateBodyPosition(int userID, Point3D pivot, Point3D base, int angle)
+	{  writePart(BODY, userID, pivot, base, angle);  }
+
+	public synchronized void updateFeetPosition(int userID, Point3D pivot, Point3D base, int angle)
+	{  writePart(FEET, userID, pivot, base, angle);  }
+
+	public synchronized void updateLeftHandPosition(int userID, Point3D pivot, Point3D base, int angle)
+	{  writePart(LEFT_HAND, userID, pivot, base, angle);  }
+
+	public synchronized void updateRightHandPosition(int userID, Point3D pivot, Point3D base, int angle)
+	{  writePart(RIGHT_HAND, userID, pivot, base, angle);  }
+
+
+	// ------------------ user images ---------------------
+
+	public synchronized boolean wantsUser(int userID)
+	// only users that have been observed, and only if images are being kept
+	{  return imageScale > 0 && out != null && userID > 0 && userID < Frame.MAX_USERS && observed[userID];  }
+
+	public synchronized void userPictureUpdate(int userID, BufferedImage userImage, int x, int y, Rectangle bounds)
+	/* keep a shrunken copy of the user's bounds of the image, if the user's
+	   last one is old enough */
+	{
+		if (out == null || imageScale == 0 || userID <= 0 || userID >= Frame.MAX_USERS)
+			return;
+		if (userImage == null) {
+			hasImage[userID] = false;
+			writeUser(NO_IMAGE, userID);
+			return;
+		}
+		long now = clock.nanoTime();
+		if (hasImage[userID] && now - lastImageTime[userID] < IMAGE_INTERVAL * 1000000L)
+			return;
+		lastImageTime[userID] = now;
+		hasImage[userID] = true;
+
+		// shrink the image now, since the caller reuses its buffers
+		int w = bounds.width;
+		int h = bounds.height;
+		int sx = bounds.x - x, sy = bounds.y - y;    // the bounds in the image
+		BufferedImage small = new BufferedImage(Math.max(w / imageScale, 1),
+				Math.max(h / imageScale, 1), BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2d = small.createGraphics();
+		g2d.drawImage(userImage, 0, 0, small.getWidth(), small.getHeight(), sx, sy, sx + w, sy + h, null);
+		g2d.dispose();
+
+		try {
+			png.reset();
+			ImageIO.write(small, "png", png);
+			writeTime();
+			out.writeByte(IMAGE);
+			out.writeByte(userID);
+			out.writeShort(bounds.x);
+			out.writeShort(bounds.y);
+			out.writeShort(w);
+			out.writeShort(h);
+			out.writeInt(png.size());
+			png.writeTo(out);
+			numRecords++;
+			numImages++;
+		}
+		catch (IOException e) {
+			stopWriting(e);
+		}
+	}  // end of userPictureUpdate()
+
+
+	// ------------------ writing ---------------------
+
+	private void writeUser(int type, int userID)
+	{
+		if (out == null)
+			return;
+		try {
+			writeTime();
+			out.writeByte(type);
+			out.writeByte(userID);
+			numRecords++;
+		}
+		catch (IOException e) {
+			stopWriting(e);
+		}
+	}  // end of writeUser()
+
+
+	private void writePart(int type, int userID, Point3D pivot, Point3D base, int angle)
+	{
+		if (out == null)
+			return;
+		try {
+			writeTime();
+			out.writeByte(type);
+			out.writeByte(userID);
+			out.writeByte(((pivot != null) ? HAS_PIVOT : 0) | ((base != null) ? HAS_BASE : 0));
+			writePoint(pivot);
+			writePoint(base);
+			out.writeShort(angle);
+			numRecords++;
+		}
+		catch (IOException e) {
+			stopWriting(e);
+		}
+	}  // end of writePart()
+
+
+	private void writePoint(Point3D pt) throws IOException
+	{
+		if (pt == null)
+			return;
+		out.writeShort(Math.round(pt.getX()));
+		out.writeShort(Math.round(pt.getY()));
+		out.writeShort(Math.round(pt.getZ()));
+	}  // end of writePoint()
+
+
+	private void writeTime() throws IOException
+	// a TIME record if a millisecond or more has gone by since the last one
+	{
+		long now = clock.nanoTime();
+		long micros = (now - lastTime) / 1000;
+		if (micros < 1000)
+			return;
+		out.writeByte(TIME);
+		out.writeInt((int) Math.min(micros, Integer.MAX_VALUE));   // gaps over 35 minutes are cut short
+		lastTime += micros * 1000;
+	}  // end of writeTime()
+
+
+	private void stopWriting(IOException e)
+	{
+		System.out.println("Skeleton event log stopped: " + e);
+		try {
+			out.close();
+		}
+		catch (IOException e2) {}
+		out = null;
+	}  // end of stopWriting()
+
+
+	public synchronized void close()
+	{
+		if (out == null)
+			return;
+		try {
+			out.close();
+			System.out.println("Logged " + numRecords + " skeleton events (" +
+					numImages + " images) to " + file);
+		}
+		catch (IOException e) {
+			System.out.println(e);
+		}
+		out = null;
+	}  // end of close()
+
+
+	public synchronized long getNumRecords()
+	{  return numRecords;  }
+
+} // end of SkeletonEventRecorder class
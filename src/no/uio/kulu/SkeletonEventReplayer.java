@@ -0,0 +1,294 @@
+package no.uio.kulu;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.OpenNI.Point3D;
+
+/* SkeletonEventReplayer.java
+
+   Plays a log written by SkeletonEventRecorder to SkeletonEvent listeners,
+   and its user images to CameraListeners, at the recorded times multiplied
+   by a speed (0 for as fast as possible). The images are scaled back up to
+   their size in the frame, so a listener sees them where it did when they
+   were recorded. The events are paced by the default Clock, which is told
+   their recorded times, so a VirtualClock keeps the recorded timing
+   without any waiting.
+
+   main() replays a log into a PlayerController, drawing all the players
+   after each batch of events, and reports the time taken.
+ */
+public class SkeletonEventReplayer
+{
+	private File file;
+	private int frameWidth, frameHeight, imageScale;
+
+	private List<SkeletonEvent> listeners = new ArrayList<SkeletonEvent>();
+	private List<CameraListener> cameraListeners = new ArrayList<CameraListener>();
+	private Clock clock = Clock.getDefault();
+	private Runnable onTime;    // run before each wait, after the events of a moment
+
+	private byte[] pngBytes = new byte[64*1024];
+	private long numEvents, numImages;
+
+
+	public SkeletonEventReplayer(File file) throws IOException
+	{
+		this.file = file;
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			readHeader(in);
+		}
+		finally {
+			in.close();
+		}
+	} // end of SkeletonEventReplayer()
+
+
+	private void readHeader(DataInputStream in) throws IOException
+	{
+		if (in.readInt() != SkeletonEventRecorder.MAGIC)
+			throw new IOException(file + " is not a skeleton event log");
+		if (in.readInt() != SkeletonEventRecorder.VERSION)
+			throw new IOException(file + " has an unknown version");
+		frameWidth = in.readInt();
+		frameHeight = in.readInt();
+		imageScale = in.readInt();
+	}  // end of readHeader()
+
+
+	public void addListener(SkeletonEvent se)
+	{
+		if (se != null)
+			listeners.add(se);
+	}
+
+	public void addCameraListener(CameraListener cl)
+	{
+		if (cl != null)
+			cameraListeners.add(cl);
+	}
+
+	public void setOnTime(Runnable onTime)
+	// e.g. to draw the listeners' state once the events of each moment are in
+	{  this.onTime = onTime;  }
+
+	public int getFrameWidth()
+	{  return frameWidth;  }
+
+	public int getFrameHeight()
+	{  return frameHeight;  }
+
+	public boolean hasImages()
+	{  return imageScale > 0;  }
+
+	public long getNumEvents()
+	{  return numEvents;  }
+
+	public long getNumImages()
+	{  return numImages;  }
+
+
+	public void play(double speed) throws IOException
+	/* send all the events in the log to the listeners, at the recorded
+	   rate times speed, or as fast as possible if speed is 0 */
+	{
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file), 64*1024));
+		try {
+			readHeader(in);
+			long startNanos = clock.nanoTime();
+			long recordedMicros = 0;    // time of the events being sent
+			while (true) {
+				int type;
+				try {
+					type = in.readUnsignedByte();
+				}
+				catch (EOFException e) {
+					break;
+				}
+				if (type == SkeletonEventRecorder.TIME) {
+					if (onTime != null)
+						onTime.run();
+					recordedMicros += in.readInt();
+					if (speed > 0)
+						waitUntil(startNanos + (long) (recordedMicros * 1000 / speed));
+					clock.sensorTime(recordedMicros);
+				}
+				else
+					playEvent(type, in);
+			}
+			if (onTime != null)
+				onTime.run();
+		}
+		finally {
+			in.close();
+		}
+	}  // end of play()
+
+
+	private void waitUntil(long due)
+	{
+		try {
+			clock.sleepUntil(due);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}  // end of waitUntil()
+
+
+	private void playEvent(int type, DataInputStream in) throws IOException
+	{
+		int userID = in.readUnsignedByte();
+		numEvents++;
+		switch (type) {
+		case SkeletonEventRecorder.OBSERVED:
+			for (SkeletonEvent se : listeners)
+				se.userObserved(userID);
+			break;
+		case SkeletonEventRecorder.LOST:
+			for (SkeletonEvent se : listeners)
+				se.userLost(userID);
+			break;
+		case SkeletonEventRecorder.CALIBRATED:
+			for (SkeletonEvent se : listeners)
+				se.userCalibrated(userID);
+			break;
+		case SkeletonEventRecorder.HEAD:
+		case SkeletonEventRecorder.BODY:
+		case SkeletonEventRecorder.FEET:
+		case SkeletonEventRecorder.LEFT_HAND:
+		case SkeletonEventRecorder.RIGHT_HAND:
+			playPart(type, userID, in);
+			break;
+		case SkeletonEventRecorder.IMAGE:
+			playImage(userID, in);
+			break;
+		case SkeletonEventRecorder.NO_IMAGE:
+			for (CameraListener cl : cameraListeners)
+				if (cl.wantsUser(userID))
+					cl.userPictureUpdate(userID, null, 0, 0, null);
+			break;
+		default:
+			throw new IOException("Unknown record type " + type + " in " + file);
+		}
+	}  // end of playEvent()
+
+
+	private void playPart(int type, int userID, DataInputStream in) throws IOException
+	{
+		int flags = in.readUnsignedByte();
+		Point3D pivot = ((flags & SkeletonEventRecorder.HAS_PIVOT) != 0) ? readPoint(in) : null;
+		Point3D base = ((flags & SkeletonEventRecorder.HAS_BASE) != 0) ? readPoint(in) : null;
+		int angle = in.readShort();
+		for (SkeletonEvent se : listeners) {
+			switch (type) {
+			case SkeletonEventRecorder.HEAD:
+				se.updateHeadPosition(userID, pivot, base, angle);
+				break;
+			case SkeletonEventRecorder.BODY:
+				se.updateBodyPosition(userID, pivot, base, angle);
+				break;
+			case SkeletonEventRecorder.FEET:
+				se.updateFeetPosition(userID, pivot, base, angle);
+				break;
+			case SkeletonEventRecorder.LEFT_HAND:
+				se.updateLeftHandPosition(userID, pivot, base, angle);
+				break;
+			default:
+				se.updateRightHandPosition(userID, pivot, base, angle);
+			}
+		}
+	}  // end of playPart()
+
+
+	private Point3D readPoint(DataInputStream in) throws IOException
+	{
+		float x = in.readShort();
+		float y = in.readShort();
+		float z = in.readShort();
+		return new Point3D(x, y, z);
+	}
+
+
+	private void playImage(int userID, DataInputStream in) throws IOException
+	// decode the image and scale it back up to its size in the frame
+	{
+		int x = in.readShort();
+		int y = in.readShort();
+		int w = in.readShort();
+		int h = in.readShort();
+		int n = in.readInt();
+		if (n > pngBytes.length)
+			pngBytes = new byte[n];
+		in.readFully(pngBytes, 0, n);
+		numImages++;
+		if (cameraListeners.isEmpty())
+			return;
+
+		BufferedImage small = ImageIO.read(new ByteArrayInputStream(pngBytes, 0, n));
+		BufferedImage im = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2d = im.createGraphics();
+		g2d.drawImage(small, 0, 0, w, h, null);
+		g2d.dispose();
+		Rectangle bounds = new Rectangle(x, y, w, h);
+		for (CameraListener cl : cameraListeners)
+			if (cl.wantsUser(userID))
+				cl.userPictureUpdate(userID, im, x, y, bounds);
+	}  // end of playImage()
+
+
+
+	public static void main(String args[]) throws IOException
+	/* replay a log into a PlayerController, drawing after each moment;
+	   usage: SkeletonEventReplayer <log> [speed]   (default 0, as fast as possible) */
+	{
+		if (args.length < 1) {
+			System.out.println("Usage: SkeletonEventReplayer <log> [speed]");
+			System.exit(1);
+		}
+		double speed = (args.length > 1) ? Double.parseDouble(args[1]) : 0;
+		SkeletonEventReplayer replayer = new SkeletonEventReplayer(new File(args[0]));
+
+		final PlayerController controller =
+				new PlayerController(replayer.getFrameWidth(), replayer.getFrameHeight());
+		replayer.addListener(controller);
+		replayer.addCameraListener(controller);
+
+		final BufferedImage screen = new BufferedImage(replayer.getFrameWidth(),
+				replayer.getFrameHeight(), BufferedImage.TYPE_INT_ARGB);
+		final Dimension size = new Dimension(screen.getWidth(), screen.getHeight());
+		final long[] numDraws = new long[1];
+		replayer.setOnTime(new Runnable() {
+			public void run()
+			{
+				Graphics2D g2d = screen.createGraphics();
+				controller.drawAll(g2d, size);
+				g2d.dispose();
+				numDraws[0]++;
+			}
+		});
+
+		long start = System.nanoTime();
+		replayer.play(speed);
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%d events, %d images, %d draws in %.2f s (%.3f ms per draw)",
+				replayer.getNumEvents(), replayer.getNumImages(), numDraws[0], secs,
+				(numDraws[0] > 0) ? secs * 1000 / numDraws[0] : 0.0));
+	}  // end of main()
+
+} // end of SkeletonEventReplayer class
@@ -6,24 +6,14 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.imageio.ImageIO;
 
-import org.OpenNI.CalibrationProgressEventArgs;
-import org.OpenNI.CalibrationProgressStatus;
-import org.OpenNI.DepthGenerator;
-import org.OpenNI.IObservable;
-import org.OpenNI.IObserver;
 import org.OpenNI.Point3D;
-import org.OpenNI.PoseDetectionCapability;
-import org.OpenNI.PoseDetectionEventArgs;
-import org.OpenNI.SkeletonCapability;
 import org.OpenNI.SkeletonJoint;
 import org.OpenNI.SkeletonJointPosition;
-import org.OpenNI.SkeletonProfile;
-import org.OpenNI.StatusException;
-import org.OpenNI.UserEventArgs;
-import org.OpenNI.UserGenerator;
 
 
 interface SkeletonEvent{
@@ -43,13 +33,13 @@ interface SkeletonEvent{
 // Skeletons.java
 // Andrew Davison, September 2011, ad@fivedots.psu.ac.th
 
-/* Skeletons sets up four 'observers' (listeners) so that 
-   when a new user is detected in the scene, a standard pose for that 
-   user is detected, the user skeleton is calibrated in the pose, and then the
-   skeleton is tracked. The start of tracking adds a skeleton entry to userSkels.
+/* Skeletons listens to the FrameSource's user events: when a new user is
+   detected in the scene, a standard pose for that user is detected, the user
+   skeleton is calibrated in the pose, and then the skeleton is tracked. The
+   start of tracking adds a skeleton entry to userSkels.
 
-   Each call to update() updates the joint positions for each user's
-   skeleton.
+   Each call to update() copies the joint positions of each user's skeleton
+   out of the frame.
 
    Each call to draw() draws each user's skeleton, with a rotated HEAD_FNM
    image for their head, and status text at the body's center-of-mass.
@@ -65,13 +55,6 @@ public class Skeletons{
 
 	private boolean debug = false; //Set true for on screen debug data
 
-	// OpenNI
-	private UserGenerator userGen;
-	private DepthGenerator depthGen;
-	private SkeletonCapability skelCap; // to output skeletal data, including the location of the joints
-	private PoseDetectionCapability poseDetectionCap; 	// to recognize when the user is in a specific position
-	private String calibPoseName = null;
-
 	private HashMap<Integer, HashMap<SkeletonJoint, SkeletonJointPosition>> userSkels;
 
 	/* userSkels maps user IDs --> a joints map (i.e. a skeleton)
@@ -81,12 +64,14 @@ public class Skeletons{
 	//Arrays of listeners who recives updates from the Skeleton class
 	private List <SkeletonEvent> listeners = new ArrayList<SkeletonEvent>();
 
-	public Skeletons(UserGenerator userGen, DepthGenerator depthGen)
-	{
-		this.userGen = userGen;
-		this.depthGen = depthGen;
+	/* user events raised by the frame source on the sensor thread; they are
+	   passed on to the listeners by update(), so the listeners are only ever
+	   called from the thread that updates the skeletons */
+	private Queue<Runnable> pendingEvents = new ConcurrentLinkedQueue<Runnable>();
 
-		configure();
+	public Skeletons(FrameSource source)
+	{
+		source.addUserListener(new UserEvents());
 		userSkels = new HashMap<Integer, HashMap<SkeletonJoint, SkeletonJointPosition>>();
 	} // end of Skeletons()
 
@@ -144,118 +129,39 @@ public class Skeletons{
 			listeners.remove(se);
 	}
 
-	/* create pose and skeleton detection capabilities for the user generator, 
-    and set up observers (listeners)   */
-	private void configure(){
-		try {
-			// setup UserGenerator pose and skeleton detection capabilities;
-			// should really check these using ProductionNode.isCapabilitySupported()
-			poseDetectionCap = userGen.getPoseDetectionCapability();
-
-			skelCap = userGen.getSkeletonCapability();
-			calibPoseName = skelCap.getSkeletonCalibrationPose();  // the 'psi' pose
-			skelCap.setSkeletonProfile(SkeletonProfile.ALL);
-			// other possible values: UPPER_BODY, LOWER_BODY, HEAD_HANDS
-
-			// set up four observers
-			userGen.getNewUserEvent().addObserver(new NewUserObserver());   // new user found
-			userGen.getLostUserEvent().addObserver(new LostUserObserver()); // lost a user
-
-			poseDetectionCap.getPoseDetectedEvent().addObserver(
-					new PoseDetectedObserver());  
-			// for when a pose is detected
-
-			skelCap.getCalibrationCompleteEvent().addObserver(
-					new CalibrationCompleteObserver());
-			// for when skeleton calibration is completed, and tracking starts
-		} 
-		catch (Exception e) {
-			System.out.println(e);
-			System.exit(1);
-		}
-	}  // end of configure()
-
 	// --------------- updating ----------------------------
 
-	public void update()
-	// update skeleton of each user
+	public void update(Frame frame)
+	// report any new user events, then update skeleton of each user
 	{
-		try {   
-			int[] userIDs = userGen.getUsers();   // there may be many users in the scene
-			for (int i = 0; i < userIDs.length; ++i) {
-				int userID = userIDs[i];
-				if (skelCap.isSkeletonCalibrating(userID))
-					continue;    // test to avoid occassional crashes with isSkeletonTracking()
-				if (skelCap.isSkeletonTracking(userID))
-					updateJoints(userID);
-			}
-		}
-		catch (StatusException e) 
-		{  System.out.println(e); }
+		Runnable event;
+		while ((event = pendingEvents.poll()) != null)
+			event.run();
+
+		for (int userID = 1; userID < Frame.MAX_USERS; userID++)
+			if (frame.skeletonTracked[userID])
+				updateJoints(userID, frame);
 	}  // end of update()
 
-	private void updateJoints(int userID)
-	// update all the joints for this userID in userSkels
+	private void updateJoints(int userID, Frame frame)
+	/* update all the joints for this userID in userSkels from the frame's
+	   joints, then report the new body part positions; the positions are
+	   made here, since the listeners may keep them */
 	{
 		HashMap<SkeletonJoint, SkeletonJointPosition> skel = userSkels.get(userID);
-
-		updateJoint(skel, userID, SkeletonJoint.HEAD);
-		updateJoint(skel, userID, SkeletonJoint.NECK);
-
-		updateJoint(skel, userID, SkeletonJoint.LEFT_SHOULDER);
-		updateJoint(skel, userID, SkeletonJoint.LEFT_ELBOW);
-		updateJoint(skel, userID, SkeletonJoint.LEFT_HAND);
-
-		updateJoint(skel, userID, SkeletonJoint.RIGHT_SHOULDER);
-		updateJoint(skel, userID, SkeletonJoint.RIGHT_ELBOW);
-		updateJoint(skel, userID, SkeletonJoint.RIGHT_HAND);
-
-		updateJoint(skel, userID, SkeletonJoint.TORSO);
-		//updateJoint(skel, userID, SkeletonJoint.WAIST);
-
-		updateJoint(skel, userID, SkeletonJoint.LEFT_HIP);
-		updateJoint(skel, userID, SkeletonJoint.LEFT_KNEE);
-		updateJoint(skel, userID, SkeletonJoint.LEFT_FOOT);
-
-		updateJoint(skel, userID, SkeletonJoint.RIGHT_HIP);
-		updateJoint(skel, userID, SkeletonJoint.RIGHT_KNEE);
-		updateJoint(skel, userID, SkeletonJoint.RIGHT_FOOT);
-	}  // end of updateJoints()
-
-	/* update the position of the specified user's joint by 
-    looking at the skeleton capability
-	 */
-	private void updateJoint(HashMap<SkeletonJoint, SkeletonJointPosition> skel,
-			int userID, SkeletonJoint joint)		
-	{
-		try {
-			// report unavailable joints (should not happen)
-			if (!skelCap.isJointAvailable(joint) || !skelCap.isJointActive(joint)) {
-								System.out.println(joint + " not available for updates");
-				return;
-			}
-
-			SkeletonJointPosition pos = skelCap.getSkeletonJointPosition(userID, joint);
-			if (pos == null) {
-				System.out.println("No update for " + joint);
-				return;
-			}
-
-			SkeletonJointPosition jPos = null;
-			if (pos.getPosition().getZ() != 0)   // has a depth position
-				jPos = new SkeletonJointPosition( 
-						depthGen.convertRealWorldToProjective(pos.getPosition()),
-						pos.getConfidence());
-			else  // no info found for that user's joint
-				jPos = new SkeletonJointPosition(new Point3D(), 0);
-			skel.put(joint, jPos);
-			updateHeadPosition(userID, skel);
-			updateHandsPosition(userID, skel);
-			updateBodyPosition(userID, skel);
+		if (skel == null)    // calibration not reported yet
+			return;
+
+		for (SkeletonJoint joint : SkeletonJoint.values()) {
+			int j = joint.ordinal();
+			if (frame.hasJoint(userID, j))
+				skel.put(joint, new SkeletonJointPosition(new Point3D(frame.jointX[userID][j],
+						frame.jointY[userID][j], frame.jointZ[userID][j]), frame.jointConfidence[userID][j]));
 		}
-		catch (StatusException e) 
-		{  System.out.println(e); }
-	}  // end of updateJoint()
+		updateHeadPosition(userID, skel);
+		updateHandsPosition(userID, skel);
+		updateBodyPosition(userID, skel);
+	}  // end of updateJoints()
 
 	private Point3D getJointPos(HashMap<SkeletonJoint, SkeletonJointPosition> skel, 
 			SkeletonJoint j)
@@ -385,80 +291,47 @@ public class Skeletons{
 
 
 
-	//--------------------- 4 observers -----------------------
+	//--------------------- user events -----------------------
 	/*   user detection --> pose detection --> skeleton calibration -->
 	    skeleton tracking (and creation of userSkels entry)
 	    + may also lose a user (and so delete its userSkels entry)
 	 */
-	class NewUserObserver implements IObserver<UserEventArgs>
+	class UserEvents implements FrameSource.UserListener
 	{
-		@SuppressWarnings("deprecation")
-		public void update(IObservable<UserEventArgs> observable, UserEventArgs args)
+		public void userDetected(final int userID)
 		{
-			System.out.println("Detected new user " + args.getId());
-			try {
-				// try to detect a pose for the new user
-				poseDetectionCap.StartPoseDetection(calibPoseName, args.getId());   // big-S ?
-				for(SkeletonEvent se : listeners)
-					se.userObserved(args.getId());
-			}
-			catch (StatusException e)
-			{ e.printStackTrace(); }
-		}
-	}  // end of NewUserObserver inner class
-
-	class LostUserObserver implements IObserver<UserEventArgs>
-	{
-		public void update(IObservable<UserEventArgs> observable, UserEventArgs args)
-		{ System.out.println("Lost track of user " + args.getId());
-		userSkels.remove(args.getId());    // remove user from userSkels
-		for(SkeletonEvent se : listeners)
-			se.userLost(args.getId());
+			pendingEvents.add(new Runnable() {
+				public void run()
+				{  for(SkeletonEvent se : listeners)
+					se.userObserved(userID);
+				}
+			});
 		}
-	} // end of LostUserObserver inner class
 
-	class PoseDetectedObserver implements IObserver<PoseDetectionEventArgs>
-	{
-		public void update(IObservable<PoseDetectionEventArgs> observable,
-				PoseDetectionEventArgs args)
+		public void userLost(final int userID)
 		{
-			int userID = args.getUser();
-			System.out.println(args.getPose() + " pose detected for user " + userID);
-			try {
-				// finished pose detection; switch to skeleton calibration
-				poseDetectionCap.StopPoseDetection(userID);    // big-S ?
-				skelCap.requestSkeletonCalibration(userID, true);
-			}
-			catch (StatusException e)
-			{  e.printStackTrace(); }
+			pendingEvents.add(new Runnable() {
+				public void run()
+				{ userSkels.remove(userID);    // remove user from userSkels
+				for(SkeletonEvent se : listeners)
+					se.userLost(userID);
+				}
+			});
 		}
-	}  // end of PoseDetectedObserver inner class
 
-	class CalibrationCompleteObserver implements IObserver<CalibrationProgressEventArgs>
-	{
-		public void update(IObservable<CalibrationProgressEventArgs> observable,
-				CalibrationProgressEventArgs args)
+		public void userCalibrated(final int userID)
 		{
-			int userID = args.getUser();
-			System.out.println("Calibration status: " + args.getStatus() + " for user " + userID);
-			try {
-				if (args.getStatus() == CalibrationProgressStatus.OK) {
-					// calibration succeeeded; move to skeleton tracking
-					System.out.println("Starting tracking user " + userID);
-					skelCap.startTracking(userID);
-					userSkels.put(new Integer(userID),
-							new HashMap<SkeletonJoint, SkeletonJointPosition>());  
-					for(SkeletonEvent se : listeners)
-						se.userCalibrated(new Integer(userID));
-					// create new skeleton map for the user in userSkels
+			pendingEvents.add(new Runnable() {
+				public void run()
+				{ userSkels.put(new Integer(userID),
+						new HashMap<SkeletonJoint, SkeletonJointPosition>());
+				// create new skeleton map for the user in userSkels
+				for(SkeletonEvent se : listeners)
+					se.userCalibrated(new Integer(userID));
 				}
-				else    // calibration failed; return to pose detection
-					poseDetectionCap.StartPoseDetection(calibPoseName, userID);    // big-S ?
-			}
-			catch (StatusException e)
-			{  e.printStackTrace(); }
+			});
 		}
-	}  // end of CalibrationCompleteObserver inner class
+	}  // end of UserEvents inner class
 
 } // end of Skeletons class
 
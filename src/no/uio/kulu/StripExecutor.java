@@ -0,0 +1,117 @@
+package no.uio.kulu;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/* StripExecutor.java
+
+   Runs a per-pixel frame loop over horizontal strips of rows.
+
+   In serial mode the whole frame is one strip, run on the calling thread.
+   In parallel mode the rows are split into one strip per worker of a
+   ForkJoinPool, and run() returns once every strip is done. A loop that
+   has to combine results (e.g. the depth histogram) keeps one partial
+   result per strip, indexed by the strip number, and merges them after
+   run() returns.
+
+   The mode is picked with the kulu.parallel system property, and the
+   number of workers with kulu.parallelism (default: one per processor).
+ */
+public class StripExecutor
+{
+	public interface StripTask
+	{
+		// process rows firstRow (inclusive) to endRow (exclusive) as strip number 'strip'
+		public void run(int strip, int firstRow, int endRow);
+	}
+
+	private ForkJoinPool pool;   // null in serial mode
+	private int numStrips;
+
+
+	public StripExecutor(boolean parallel, int parallelism)
+	{
+		if (parallel && parallelism > 1) {
+			pool = new ForkJoinPool(parallelism);
+			numStrips = parallelism;
+		}
+		else
+			numStrips = 1;
+	} // end of StripExecutor()
+
+
+	public static StripExecutor fromSystemProperties()
+	// an executor configured by the kulu.parallel and kulu.parallelism system properties
+	{
+		return new StripExecutor(Boolean.getBoolean("kulu.parallel"),
+				Integer.getInteger("kulu.parallelism", Runtime.getRuntime().availableProcessors()));
+	}
+
+
+	public void run(int rows, StripTask task)
+	// split rows 0 to rows-1 into strips, and run the task on each of them
+	{  run(0, rows, task);  }
+
+
+	public void run(int firstRow, int endRow, StripTask task)
+	// split rows firstRow to endRow-1 into strips, and run the task on each of them
+	{
+		if (pool == null)
+			task.run(0, firstRow, endRow);
+		else
+			pool.invoke(new Strips(task, firstRow, endRow, 0, numStrips));
+	}  // end of run()
+
+
+	public int getNumStrips()
+	// the number of strips a frame is split into, so the number of partial results needed
+	{  return numStrips;  }
+
+	public boolean isParallel()
+	{  return pool != null;  }
+
+	public void shutdown()
+	{
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	public String toString()
+	{  return isParallel() ? "parallel, " + numStrips + " strips" : "serial";  }
+
+
+	// ------------------------ the strips ---------------------------
+
+	private class Strips extends RecursiveAction
+	// runs strips fromStrip to toStrip-1, halving the range until one strip is left
+	{
+		private static final long serialVersionUID = 1L;
+
+		private StripTask task;
+		private int firstRow, endRow, fromStrip, toStrip;
+
+		Strips(StripTask task, int firstRow, int endRow, int fromStrip, int toStrip)
+		{
+			this.task = task;
+			this.firstRow = firstRow;
+			this.endRow = endRow;
+			this.fromStrip = fromStrip;
+			this.toStrip = toStrip;
+		}
+
+		private int stripStart(int strip)
+		{  return firstRow + (int) ((long) (endRow - firstRow) * strip / numStrips);  }
+
+		protected void compute()
+		{
+			if (toStrip - fromStrip == 1)
+				task.run(fromStrip, stripStart(fromStrip), stripStart(toStrip));
+			else {
+				int mid = (fromStrip + toStrip) / 2;
+				invokeAll(new Strips(task, firstRow, endRow, fromStrip, mid),
+						new Strips(task, firstRow, endRow, mid, toStrip));
+			}
+		}  // end of compute()
+	}  // end of Strips inner class
+
+} // end of StripExecutor class
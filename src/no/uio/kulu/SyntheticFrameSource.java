@@ -0,0 +1,372 @@
+package no.uio.kulu;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.OpenNI.Context;
+import org.OpenNI.Point3D;
+import org.OpenNI.SkeletonJoint;
+import org.OpenNI.SkeletonJointPosition;
+
+/* SyntheticFrameSource.java
+
+   A FrameSource that needs no sensor. It renders a number of stick-figure
+   users in front of a static wall, each swaying from side to side and
+   waving their arms, and fills in the depth map, label map, RGB image and
+   skeleton joints the same way OpenNI would.
+
+   User i (counting from 1) walks in at frame ENTER_FRAMES*(i-1), and is
+   reported as calibrated CALIBRATION_FRAMES later. Frames are produced at
+   the given rate, or as fast as they are asked for if the rate is 0; the
+   timestamps always advance as if at NOMINAL_FPS, so a run is repeatable
+   whatever the speed. The frames are paced by the default Clock, so with
+   a VirtualClock they never wait.
+ */
+public class SyntheticFrameSource implements FrameSource
+{
+	private static final int ENTER_FRAMES = 10;        // frames between two users walking in
+	private static final int CALIBRATION_FRAMES = 30;  // frames from detection to calibration
+	private static final int NOMINAL_FPS = 30;         // for the timestamps
+	private static final float FOCAL_LENGTH = 525;     // Kinect depth camera focal length (pixels)
+
+	private static final int WALL_DEPTH = 4000;        // mm
+	private static final int[][] SHIRT_COLOURS = {
+			{200, 40, 40}, {40, 60, 200}, {40, 160, 60}, {220, 180, 30},
+			{150, 50, 170}, {30, 170, 180}, {230, 120, 30}, {90, 90, 90}, {240, 240, 240} };
+	private static final int[] SKIN_COLOUR = {225, 180, 150};
+	private static final int[] TROUSER_COLOUR = {40, 40, 70};
+
+	private final int width, height;
+	private final int numUsers;
+	private final int fps;     // 0 for as fast as possible
+
+	private short[] wallDepth;   // the empty scene, copied into each frame
+	private byte[] wallRGB;
+
+	private List<UserListener> listeners = new ArrayList<UserListener>();
+
+	private Clock clock = Clock.getDefault();
+	private int frameNumber = -1;
+	private long nextFrameNanos;
+	private SkeletonJointPosition[][] joints;   // of the current frame, by user ID and joint ordinal
+	private int[] userOrder;                    // user IDs, farthest first
+
+
+	public SyntheticFrameSource(int numUsers, int fps)
+	{  this(640, 480, numUsers, fps);  }
+
+
+	public SyntheticFrameSource(int width, int height, int numUsers, int fps)
+	{
+		this.width = width;
+		this.height = height;
+		this.numUsers = Math.max(0, Math.min(numUsers, Frame.MAX_USERS-1));
+		this.fps = fps;
+
+		joints = new SkeletonJointPosition[Frame.MAX_USERS][Frame.NUM_JOINTS];
+		userOrder = new int[this.numUsers];
+		for (int i = 0; i < this.numUsers; i++)
+			userOrder[i] = this.numUsers - i;   // higher IDs stand farther back
+		makeWall();
+		System.out.println("Synthetic scene: " + this.numUsers + " users, " +
+				((fps > 0) ? fps + " fps" : "as fast as possible"));
+	} // end of SyntheticFrameSource()
+
+
+	private void makeWall()
+	// a wall with a floor in front of it, and a pattern in the RGB image
+	{
+		int horizon = height * 2 / 3;
+		wallDepth = new short[width * height];
+		wallRGB = new byte[width * height * 3];
+		for (int y = 0; y < height; y++) {
+			// the floor gets nearer towards the bottom of the image
+			int depth = (y < horizon) ? WALL_DEPTH :
+				WALL_DEPTH - (WALL_DEPTH/2) * (y - horizon) / (height - horizon);
+			for (int x = 0; x < width; x++) {
+				int pos = y*width + x;
+				wallDepth[pos] = (short) depth;
+				int shade = (((x >> 5) + (y >> 5)) & 1) == 0 ? 170 : 150;
+				if (y >= horizon)
+					shade -= 60;
+				wallRGB[3*pos] = (byte) shade;
+				wallRGB[3*pos + 1] = (byte) (shade - 10);
+				wallRGB[3*pos + 2] = (byte) (shade - 30);
+			}
+		}
+	} // end of makeWall()
+
+
+	public int getWidth()
+	{  return width;  }
+
+	public int getHeight()
+	{  return height;  }
+
+	public Context getContext()
+	{  return null;  }
+
+	public void addUserListener(UserListener listener)
+	{  listeners.add(listener);  }
+
+	public void addContextListener(ContextListener listener)
+	{}    // there is no context to replace
+
+
+	public void waitForUpdate()
+	/* wait until the next frame is due, move the users, and report the users
+	   who have walked in or been calibrated */
+	{
+		if (fps > 0) {
+			long now = clock.nanoTime();
+			if (nextFrameNanos == 0)
+				nextFrameNanos = now;
+			try {
+				clock.sleepUntil(nextFrameNanos);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			nextFrameNanos = Math.max(nextFrameNanos, now - 1000000000L/fps) + 1000000000L/fps;
+		}
+		frameNumber++;
+
+		for (int userID = 1; userID <= numUsers; userID++) {
+			int age = frameNumber - ENTER_FRAMES*(userID-1);
+			if (age == 0)
+				for (UserListener l : listeners)
+					l.userDetected(userID);
+			else if (age == CALIBRATION_FRAMES)
+				for (UserListener l : listeners)
+					l.userCalibrated(userID);
+		}
+		for (int userID = 1; userID <= numUsers; userID++)
+			if (isPresent(userID))
+				poseUser(userID, joints[userID]);
+	} // end of waitForUpdate()
+
+
+	public boolean waitForUpdate(long timeoutMillis)
+	// the next frame is never held up
+	{
+		waitForUpdate();
+		return true;
+	}
+
+	public boolean reinitialize()
+	{  return false;  }
+
+
+	private boolean isPresent(int userID)
+	{  return frameNumber >= ENTER_FRAMES*(userID-1);  }
+
+	private boolean isCalibrated(int userID)
+	{  return frameNumber >= ENTER_FRAMES*(userID-1) + CALIBRATION_FRAMES;  }
+
+
+	public void readFrame(Frame frame)
+	/* render the users over the wall, farthest user first */
+	{
+		frame.frameId = frameNumber;
+		frame.timestamp = frameNumber * 1000000L / NOMINAL_FPS;
+		frame.rgbFrameId = frame.frameId;      // rendered together
+		frame.rgbTimestamp = frame.timestamp;
+		frame.acquiredNanos = System.nanoTime();
+
+		System.arraycopy(wallDepth, 0, frame.depth, 0, wallDepth.length);
+		System.arraycopy(wallRGB, 0, frame.rgb, 0, wallRGB.length);
+		Arrays.fill(frame.labels, (short) 0);
+
+		int numPresent = 0;
+		for (int userID = 1; userID <= numUsers; userID++)
+			if (isPresent(userID))
+				numPresent++;
+		if (frame.trackedUsers.length != numPresent)
+			frame.trackedUsers = new int[numPresent];
+		Arrays.fill(frame.skeletonTracked, false);
+
+		int n = 0;
+		for (int userID : userOrder) {
+			if (!isPresent(userID))
+				continue;
+			frame.trackedUsers[n++] = userID;
+			drawUser(frame, userID, joints[userID]);
+			if (isCalibrated(userID)) {
+				copyJoints(joints[userID], frame, userID);
+				frame.skeletonTracked[userID] = true;
+			}
+		}
+	} // end of readFrame()
+
+
+	private void copyJoints(SkeletonJointPosition[] userJoints, Frame frame, int userID)
+	// store the user's posed joints in the frame's joint arrays
+	{
+		frame.clearJoints(userID);
+		for (int j = 0; j < Frame.NUM_JOINTS; j++) {
+			SkeletonJointPosition jPos = userJoints[j];
+			if (jPos == null)
+				continue;
+			Point3D p = jPos.getPosition();
+			frame.setJoint(userID, j, p.getX(), p.getY(), p.getZ(), jPos.getConfidence());
+		}
+	}  // end of copyJoints()
+
+
+	// ---------------------- the figures -------------------------------
+
+	private void poseUser(int userID, SkeletonJointPosition[] userJoints)
+	/* place the user's joints (projective coordinates) for the current frame.
+	   The body is laid out in mm, relative to the hip centre, with y up. */
+	{
+		double t = frameNumber / (double) NOMINAL_FPS;   // seconds
+		double phase = userID * 1.7;
+		float z = depthOf(userID);
+		float scale = FOCAL_LENGTH / z;     // pixels per mm
+
+		// sway from side to side
+		float hipX = width * userID / (float) (numUsers + 1) +
+				(float) (Math.sin(t * 0.8 + phase) * 60);
+		float hipY = height * 0.62f;
+
+		double leftArm = 0.6 + 0.9 * Math.sin(t * 2.0 + phase);    // radians from hanging down
+		double rightArm = 0.6 + 0.9 * Math.sin(t * 2.3 + phase + 1);
+		double step = 0.25 * Math.sin(t * 3.0 + phase);
+
+		setJoint(userJoints, SkeletonJoint.HEAD, hipX, hipY, scale, z, 0, 750);
+		setJoint(userJoints, SkeletonJoint.NECK, hipX, hipY, scale, z, 0, 550);
+		setJoint(userJoints, SkeletonJoint.TORSO, hipX, hipY, scale, z, 0, 250);
+
+		setArm(userJoints, SkeletonJoint.LEFT_SHOULDER, SkeletonJoint.LEFT_ELBOW, SkeletonJoint.LEFT_HAND,
+				hipX, hipY, scale, z, -180, -leftArm);
+		setArm(userJoints, SkeletonJoint.RIGHT_SHOULDER, SkeletonJoint.RIGHT_ELBOW, SkeletonJoint.RIGHT_HAND,
+				hipX, hipY, scale, z, 180, rightArm);
+
+		setLeg(userJoints, SkeletonJoint.LEFT_HIP, SkeletonJoint.LEFT_KNEE, SkeletonJoint.LEFT_FOOT,
+				hipX, hipY, scale, z, -100, step);
+		setLeg(userJoints, SkeletonJoint.RIGHT_HIP, SkeletonJoint.RIGHT_KNEE, SkeletonJoint.RIGHT_FOOT,
+				hipX, hipY, scale, z, 100, -step);
+	} // end of poseUser()
+
+
+	private void setArm(SkeletonJointPosition[] userJoints, SkeletonJoint shoulder,
+			SkeletonJoint elbow, SkeletonJoint hand, float hipX, float hipY, float scale,
+			float z, float shoulderX, double angle)
+	// an arm hanging from the shoulder, rotated out by angle
+	{
+		float elbowX = shoulderX + (float) (Math.sin(angle) * 280);
+		float elbowY = 500 - (float) (Math.cos(angle) * 280);
+		float handX = elbowX + (float) (Math.sin(angle * 1.3) * 260);
+		float handY = elbowY - (float) (Math.cos(angle * 1.3) * 260);
+		setJoint(userJoints, shoulder, hipX, hipY, scale, z, shoulderX, 500);
+		setJoint(userJoints, elbow, hipX, hipY, scale, z, elbowX, elbowY);
+		setJoint(userJoints, hand, hipX, hipY, scale, z, handX, handY);
+	}
+
+
+	private void setLeg(SkeletonJointPosition[] userJoints, SkeletonJoint hip,
+			SkeletonJoint knee, SkeletonJoint foot, float hipX, float hipY, float scale,
+			float z, float legX, double angle)
+	// a leg swung forward by angle
+	{
+		float kneeX = legX + (float) (Math.sin(angle) * 450);
+		float footX = kneeX + (float) (Math.sin(angle * 0.5) * 400);
+		setJoint(userJoints, hip, hipX, hipY, scale, z, legX, 0);
+		setJoint(userJoints, knee, hipX, hipY, scale, z, kneeX, -450);
+		setJoint(userJoints, foot, hipX, hipY, scale, z, footX, -850);
+	}
+
+
+	private void setJoint(SkeletonJointPosition[] userJoints, SkeletonJoint joint,
+			float hipX, float hipY, float scale, float z, float x, float y)
+	// (x, y) is in mm from the hip centre
+	{
+		userJoints[joint.ordinal()] = new SkeletonJointPosition(
+				new Point3D(hipX + x*scale, hipY - y*scale, z), 1);
+	}
+
+
+	private void drawUser(Frame frame, int userID, SkeletonJointPosition[] userJoints)
+	// draw the user's limbs as capsules, and the head as a disc
+	{
+		short z = (short) depthOf(userID);
+		float scale = FOCAL_LENGTH / z;
+		int[] shirt = SHIRT_COLOURS[(userID-1) % SHIRT_COLOURS.length];
+
+		drawLimb(frame, userID, z, userJoints, SkeletonJoint.NECK, SkeletonJoint.TORSO, 150*scale, shirt);
+		drawLimb(frame, userID, z, userJoints, SkeletonJoint.TORSO, SkeletonJoint.LEFT_HIP, 140*scale, shirt);
+		drawLimb(frame, userID, z, userJoints, SkeletonJoint.TORSO, SkeletonJoint.RIGHT_HIP, 140*scale, shirt);
+		drawLimb(frame, userID, z, userJoints, SkeletonJoint.LEFT_SHOULDER, SkeletonJoint.RIGHT_SHOULDER, 60*scale, shirt);
+
+		drawLimb(frame, userID, z, userJoints, SkeletonJoint.LEFT_SHOULDER, SkeletonJoint.LEFT_ELBOW, 50*scale, shirt);
+		drawLimb(frame, userID, z, userJoints, SkeletonJoint.LEFT_ELBOW, SkeletonJoint.LEFT_HAND, 40*scale, SKIN_COLOUR);
+		drawLimb(frame, userID, z, userJoints, SkeletonJoint.RIGHT_SHOULDER, SkeletonJoint.RIGHT_ELBOW, 50*scale, shirt);
+		drawLimb(frame, userID, z, userJoints, SkeletonJoint.RIGHT_ELBOW, SkeletonJoint.RIGHT_HAND, 40*scale, SKIN_COLOUR);
+
+		drawLimb(frame, userID, z, userJoints, SkeletonJoint.LEFT_HIP, SkeletonJoint.LEFT_KNEE, 70*scale, TROUSER_COLOUR);
+		drawLimb(frame, userID, z, userJoints, SkeletonJoint.LEFT_KNEE, SkeletonJoint.LEFT_FOOT, 55*scale, TROUSER_COLOUR);
+		drawLimb(frame, userID, z, userJoints, SkeletonJoint.RIGHT_HIP, SkeletonJoint.RIGHT_KNEE, 70*scale, TROUSER_COLOUR);
+		drawLimb(frame, userID, z, userJoints, SkeletonJoint.RIGHT_KNEE, SkeletonJoint.RIGHT_FOOT, 55*scale, TROUSER_COLOUR);
+
+		drawLimb(frame, userID, z, userJoints, SkeletonJoint.HEAD, SkeletonJoint.HEAD, 110*scale, SKIN_COLOUR);
+	} // end of drawUser()
+
+
+	private void drawLimb(Frame frame, int userID, short z, SkeletonJointPosition[] userJoints,
+			SkeletonJoint from, SkeletonJoint to, float radius, int[] colour)
+	/* set every pixel within radius of the line between the two joints to
+	   the user's ID, depth and colour */
+	{
+		Point3D a = userJoints[from.ordinal()].getPosition();
+		Point3D b = userJoints[to.ordinal()].getPosition();
+		float ax = a.getX(), ay = a.getY();
+		float dx = b.getX() - ax, dy = b.getY() - ay;
+		float lenSq = dx*dx + dy*dy;
+		float rSq = radius*radius;
+
+		int x0 = Math.max(0, (int) (Math.min(ax, b.getX()) - radius));
+		int x1 = Math.min(width-1, (int) (Math.max(ax, b.getX()) + radius));
+		int y0 = Math.max(0, (int) (Math.min(ay, b.getY()) - radius));
+		int y1 = Math.min(height-1, (int) (Math.max(ay, b.getY()) + radius));
+		byte r = (byte) colour[0], g = (byte) colour[1], bl = (byte) colour[2];
+
+		for (int y = y0; y <= y1; y++) {
+			for (int x = x0; x <= x1; x++) {
+				// distance from (x, y) to the nearest point of the segment
+				float px = x - ax, py = y - ay;
+				float t = (lenSq == 0) ? 0 : Math.max(0, Math.min(1, (px*dx + py*dy) / lenSq));
+				float ex = px - t*dx, ey = py - t*dy;
+				if (ex*ex + ey*ey > rSq)
+					continue;
+				int pos = y*width + x;
+				frame.labels[pos] = (short) userID;
+				frame.depth[pos] = z;
+				frame.rgb[3*pos] = r;
+				frame.rgb[3*pos + 1] = g;
+				frame.rgb[3*pos + 2] = bl;
+			}
+		}
+	} // end of drawLimb()
+
+
+	private static float depthOf(int userID)
+	// users stand in a row, higher IDs farther away
+	{  return 2600 + 250 * (userID-1);  }
+
+
+	public Point3D convertRealWorldToProjective(Point3D point)
+	// a pinhole camera with the Kinect's focal length
+	{
+		float z = point.getZ();
+		if (z == 0)
+			return new Point3D(width/2, height/2, 0);
+		return new Point3D(width/2 + point.getX() * FOCAL_LENGTH / z,
+				height/2 - point.getY() * FOCAL_LENGTH / z, z);
+	}
+
+
+	public void release()
+	{}
+
+} // end of SyntheticFrameSource class
@@ -19,264 +19,279 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ShortBuffer;
-import java.util.ArrayList;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.imageio.ImageIO;
 import javax.swing.JLayeredPane;
 import javax.swing.JPanel;
-
-import org.OpenNI.AlternativeViewpointCapability;
-import org.OpenNI.Context;
-import org.OpenNI.DepthGenerator;
-import org.OpenNI.DepthMetaData;
-import org.OpenNI.GeneralException;
-import org.OpenNI.ImageGenerator;
-import org.OpenNI.License;
-import org.OpenNI.MapOutputMode;
-import org.OpenNI.SceneMetaData;
-import org.OpenNI.StatusException;
-import org.OpenNI.UserGenerator;
+import javax.swing.SwingUtilities;
 
 import clicktracking.no.uio.kulu.ComponentInfo;
 
-import com.primesense.NITE.SessionManager;
-
 
 
 
 interface CameraListener {
-	public void userPictureUpdate(int i, BufferedImage userImage);
+	/* Asked on every frame; an image of the user is only extracted if some
+	   listener wants it */
+	public boolean wantsUser(int userID);
+
+	/* Sent for each wanted user in the frame. The user is inside bounds, in
+	   frame coordinates, and (x, y) is the position of the image's top-left
+	   corner in the frame. The TrackerPanel sends the frame-sized image the
+	   user was drawn into, at (0, 0), so a listener that only wants the user
+	   draws or copies just the bounds of it, and no sub-image is made. The
+	   image is reused once the frame has been drawn, and bounds straight
+	   away, so a listener copies what it keeps. The image is null, sent
+	   once, when a user has left the frame. */
+	public void userPictureUpdate(int i, BufferedImage userImage, int x, int y, Rectangle bounds);
 }
 
 public class TrackerPanel extends JPanel
 {
-	private static final int MAX_DEPTH_SIZE = 10000;  
-	private Color USER_COLORS[] = {
-			Color.RED, Color.BLUE, Color.CYAN, Color.GREEN,
-			Color.MAGENTA, Color.PINK, Color.YELLOW, Color.WHITE};
-	/* colors used to draw each user's depth image, except the last
-             (white) which is for the background */ 
-
-	private byte[] imgbytes;
+	private static final int MAX_USERS = Frame.MAX_USERS;   // size of the per-user arrays; user IDs start at 1
 	private int imWidth, imHeight;
-	private float histogram[];        // for the depth values
-	private int maxDepth = 0;         // largest depth value
+
+	private DepthView depthView;              // debug layer, only drawn while shown
+	private volatile boolean depthShown;
 
 	private PlayerController playerController;
-	private ArrayList<CameraListener> cameraListeners = new ArrayList<CameraListener>();
+	private Clock clock = Clock.getDefault();   // told the timestamp of each frame as its players are updated
+	private List<CameraListener> cameraListeners = new CopyOnWriteArrayList<CameraListener>();
 
 	/* the background image and final camera image (with only the users showing).
   The camera image will be built from the Kinect RGB image on each update,
   and then drawn over the static background image. 
 	 */
 	private BufferedImage backIm, cameraImage;
-	private int[] cameraPixels; // holds the pixels that will fill the cameraImage image
+
+	private FrameBufferPool bufferPool;   // reusable pixel arrays and user images
+	// the user images sent to the listeners for the latest frame, and the area drawn in each
+	private BufferedImage[] shownImages = new BufferedImage[MAX_USERS];
+	private Rectangle[] shownBounds = new Rectangle[MAX_USERS];
+	private boolean[] wantedUsers = new boolean[MAX_USERS];   // tracked users some listener wants an image of
+	private boolean[] publishedUsers = new boolean[MAX_USERS]; // users whose image was sent for the last frame
+	private int [][] userPixels = new int[MAX_USERS][]; // pixels of each user's image, written by the frame kernel
 
 	// used for the average ms processing information
-	private int hideBGPixel; // the "hide the background" pixel: this could be any colour so long as its alpha value is 0 
 	private Font msgFont;
+	private volatile String stallMessage;   // shown while the sensor has stalled, or null
 
-	// OpenNI & NITE	
-	private DepthMetaData depthMD;
-	private SceneMetaData sceneMD;
-	private DepthGenerator depthGen;
-	private ImageGenerator imageGen; 
-	private Context context;
-	private SessionManager sessionMan;
+	private FrameSource source;   // the sensor, or a stand-in for it
 
 	private Skeletons skels;   // the users' skeletons
 	private Player [] players;
-	int [][] userPixels; // Each user's image pixels
+	// serial or strip-parallel execution of the per-pixel loops
+	private StripExecutor strips;
+	private volatile boolean maskFirst;   // use the kernel that works from the frame's label runs
+	// bounding box of each user in each strip of the label map, found by the label pass
+	private int[][] minX, minY, maxX, maxY;
+
 
+	public TrackerPanel(FrameSource source, String backFnm)
+	// with the serial or parallel loops picked by the system properties
+	{  this(source, backFnm, StripExecutor.fromSystemProperties());  }
 
-	public TrackerPanel(Context context, String backFnm)
+
+	public TrackerPanel(FrameSource source, String backFnm, StripExecutor strips)
+	// the per-pixel loops are run by strips, which is shut down by close()
 	{
-		this.context = context;
-		playerController = new PlayerController();
-		addCameraListener(playerController);
+		this.source = source;
 		setBackground(Color.WHITE);
-		configOpenNI();
+		skels = new Skeletons(source);
 
 		msgFont = new Font("SansSerif", Font.BOLD, 18);
-		histogram = new float[MAX_DEPTH_SIZE];
 		backIm = loadImage(backFnm); //Background image
-		imWidth = depthMD.getFullXRes();
-		imHeight = depthMD.getFullYRes();
-		imgbytes = new byte[imWidth * imHeight * 3];  // create empty image bytes array of correct size and type
-		//hideBGPixel =  new Color(0, 0, 255, 0).getRGB();   // transparent blue 
-		hideBGPixel = 0;
-		cameraPixels = new int[imWidth * imHeight]; // create d.s for holding camera pixels and image
+		imWidth = source.getWidth();
+		imHeight = source.getHeight();
+		playerController = new PlayerController(imWidth, imHeight);
+		addCameraListener(playerController);
+		skels.addListener(playerController);
+		depthView = new DepthView(imWidth, imHeight, strips);
+		bufferPool = new FrameBufferPool(imWidth, imHeight);   // buffers are checked out of the pool for each frame
+		for (int i = 0; i < MAX_USERS; i++)
+			shownBounds[i] = new Rectangle();
+
+		this.strips = strips;
+		maskFirst = Boolean.parseBoolean(System.getProperty("kulu.maskFirst", "true"));
+		System.out.println("Frame processing: " + strips + (maskFirst ? ", mask-first" : ""));
+		int numStrips = strips.getNumStrips();
+		minX = new int[numStrips][MAX_USERS];
+		minY = new int[numStrips][MAX_USERS];
+		maxX = new int[numStrips][MAX_USERS];
+		maxY = new int[numStrips][MAX_USERS];
 //		cameraImage =  new BufferedImage( imWidth, imHeight, BufferedImage.TYPE_INT_ARGB);  // the image must have an alpha channel for the transparent blue pixels       
 	
 	} 
 
+	public void close()
+	// stop the strip workers; the panel can't process frames after this
+	{  strips.shutdown();  }
+
 	public void addCameraListener(CameraListener cl){
 		cameraListeners.add(cl);
 	}
 
-	/* create context, depth generator, depth metadata, image generator,
-  user generator, scene metadata, and skeletons
-	 */
-	private void configOpenNI() {
-		try {
-			// add the NITE Licence 
-			License license = new License("PrimeSense", 
-					"0KOIk2JeIBYClPWVnMoRKn5cdY4=");   // vendor, key
-			context.addLicense(license); 
-
-			depthGen = DepthGenerator.create(context);
-			imageGen = ImageGenerator.create(context);
-
-			// set the viewpoint of the DepthGenerator to match the ImageGenerator
-			boolean hasAltView = 
-					depthGen.isCapabilitySupported("AlternativeViewPoint");
-			if (hasAltView) { 
-				AlternativeViewpointCapability altViewCap = 
-						depthGen.getAlternativeViewpointCapability();
-				altViewCap.setViewpoint(imageGen); 
-			}
-			else {
-				System.out.println("Alternative ViewPoint not supported"); 
-				System.exit(1);
-			}
+	public void addSkeletonListener(SkeletonEvent se){
+		skels.addListener(se);
+	}
 
-			MapOutputMode mapMode = new MapOutputMode(640, 480, 30);   // xRes, yRes, FPS
-			depthGen.setMapOutputMode(mapMode); 
-			imageGen.setMapOutputMode(mapMode); 
-			context.setGlobalMirror(true);         // set mirror mode 
-			depthMD = depthGen.getMetaData(); // use depth metadata to access depth info (avoids bug with DepthGenerator)
+	public Dimension getPreferredSize()
+	{ return new Dimension(imWidth, imHeight); }
 
+	public int getImageWidth()
+	{  return imWidth;  }
 
-			UserGenerator userGen = UserGenerator.create(context);
-			sceneMD = userGen.getUserPixels(0);
-			// used to return a map containing user IDs (or 0) at each depth location
+	public int getImageHeight()
+	{  return imHeight;  }
 
-			skels = new Skeletons(userGen, depthGen);
-			skels.addListener(playerController);
+	public FrameBufferPool getBufferPool()
+	{  return bufferPool;  }
 
-			context.startGeneratingAll(); 
-			System.out.println("Started context generating..."); 
-		} 
-		catch (Exception e) {
-			System.out.println(e);
-			System.exit(1);
-		}
-	}  // end of configOpenNI()
+	public void setMaskFirst(boolean maskFirst)
+	/* choose between the mask-first kernel, which works from the frame's
+	   label runs and only converts the RGB pixels of wanted users, and the
+	   per-pixel kernel; can be changed while frames are processed */
+	{  this.maskFirst = maskFirst;  }
 
-	public Dimension getPreferredSize()
-	{ return new Dimension(imWidth, imHeight); }
+	public boolean isMaskFirst()
+	{  return maskFirst;  }
+
+	public void setDepthShown(boolean depthShown)
+	/* show or hide the depth debug layer; it is only computed while shown */
+	{  this.depthShown = depthShown;  }
+
+	public boolean isDepthShown()
+	{  return depthShown;  }
+
+	public void showStall(String message)
+	/* while the sensor has stalled, redraw the players of the last frame,
+	   whose animations go on, with the message over them; the message goes
+	   once the next frame is drawn */
+	{
+		stallMessage = message;
+		repaint();
+	}  // end of showStall()
 
 	public void announcePress(ComponentInfo ci)
 	// called from GGUI panels for reporting component 'press' info
 	{  System.out.println("GUI update: " + ci);   }  
 
-	public void run()
-	/* update and display the users-coloured depth image and skeletons
-     whenever the context is updated.
+	public void acquire(Frame frame)
+	/* called from the sensor loop right after an update: copy the depth map,
+	   user label map, RGB image and skeleton joints into the frame, since
+	   OpenNI reuses its buffers on the next update; the frame isn't valid if
+	   the source couldn't copy it
 	 */
-	{
-		updateUserDepths();
-		//Update player image and send to playercontroller
-		screenUsers();
-		int len = userPixels.length-1;
-		for(int i = 1; i < len; i++){ //User IDs start at 1
-			BufferedImage userImage = convertToUserImage(userPixels[i]);
-			for(CameraListener cl : cameraListeners )
-				cl.userPictureUpdate(i, userImage); // i is the user ID
-		}
-		skels.update();	
+	{  source.readFrame(frame);  }
 
-		repaint();
-
-	}  // end of run()
 
+	public void process(Frame frame)
+	// encode the label map as runs, and build an image of each user
+	{
+		frame.labelRuns.encode(frame.labels);   // read by the kernel and the depth view
+		if (frame.userImages == null) {
+			frame.userImages = new BufferedImage[MAX_USERS];
+			frame.retiredImages = new BufferedImage[MAX_USERS];
+			frame.userBounds = new Rectangle[MAX_USERS];
+			frame.retiredBounds = new Rectangle[MAX_USERS];
+			for (int i = 0; i < MAX_USERS; i++) {
+				frame.userBounds[i] = new Rectangle();
+				frame.retiredBounds[i] = new Rectangle();
+			}
+		}
+		screenUsers(frame);
+	}  // end of process()
 
 
-	private void updateUserDepths()
-	/* build a histogram of 8-bit depth values, and convert it to
-     depth image bytes where each user is coloured differently */
+	public void updatePlayers(Frame frame)
+	/* send the user images to the listeners that want them, and update the
+	   skeletons; a user who has left the frame is sent a null image once.
+	   The clock is moved on to the frame's time first, so everything the
+	   frame's events set off sees the time of that frame. */
 	{
-		ShortBuffer depthBuf = depthMD.getData().createShortBuffer();
-		calcHistogram(depthBuf);
-		depthBuf.rewind();
-
-		// use user IDs to colour the depth map
-		ShortBuffer usersBuf = sceneMD.getData().createShortBuffer();
-		/* usersBuf is a labeled depth map, where each pixel holds an
-         user ID (e.g. 1, 2, 3), or 0 to denote that the pixel is
-         part of the background.  */
-
-		while (depthBuf.remaining() > 0) {
-			int pos = depthBuf.position();
-			short depthVal = depthBuf.get();
-			short userID = usersBuf.get();
-			if(depthVal < maxDepth && depthVal >= 0){
-				imgbytes[3*pos] = 0;     // default colour is black when there's no depth data
-				imgbytes[3*pos + 1] = 0;
-				imgbytes[3*pos + 2] = 0;
-
-				if (depthVal != 0) {   // there is depth data
-					// convert userID to index into USER_COLORS[]
-					int colorIdx = userID % (USER_COLORS.length-1);   // skip last color
-
-					if (userID == 0)    // not a user; actually the background
-						colorIdx = USER_COLORS.length-1;   
-					// use last index: the position of white in USER_COLORS[]
-
-					// convert histogram value (0.0-1.0f) to a RGB color
-					float histValue = histogram[depthVal];
-					imgbytes[3*pos] = (byte) (histValue * USER_COLORS[colorIdx].getRed());
-					imgbytes[3*pos + 1] = (byte) (histValue * USER_COLORS[colorIdx].getGreen());
-					imgbytes[3*pos + 2] = (byte) (histValue * USER_COLORS[colorIdx].getBlue());
+		clock.sensorTime(frame.timestamp);
+		for(int i = 1; i < MAX_USERS; i++){ //User IDs start at 1
+			if (frame.userImages[i] != null) {
+				for(CameraListener cl : cameraListeners ) {
+					if (cl.wantsUser(i))
+						cl.userPictureUpdate(i, frame.userImages[i], 0, 0, frame.userBounds[i]); // i is the user ID
 				}
+				publishedUsers[i] = true;
 			}
+			else if (publishedUsers[i]) {
+				for(CameraListener cl : cameraListeners )
+					cl.userPictureUpdate(i, null, 0, 0, null);
+				publishedUsers[i] = false;
+			}
+		}
+		// the previous images can go back to the pool once this frame has been drawn
+		System.arraycopy(shownImages, 0, frame.retiredImages, 0, MAX_USERS);
+		System.arraycopy(frame.userImages, 0, shownImages, 0, MAX_USERS);
+		for (int i = 0; i < MAX_USERS; i++) {
+			frame.retiredBounds[i].setBounds(shownBounds[i]);
+			shownBounds[i].setBounds(frame.userBounds[i]);
 		}
-	}  // end of updateUserDepths()
+		skels.update(frame);
+	}  // end of updatePlayers()
 
 
-	private void calcHistogram(ShortBuffer depthBuf)
+	public void render(Frame frame)
+	/* draw the panel on the event dispatch thread, and wait until it is
+	   done so the frame isn't recycled while it is being drawn
+	 */
 	{
-		// reset histogram
-		for (int i = 0; i <= maxDepth; i++)
-			histogram[i] = 0;
-
-		// record number of different depths in histogram[]
-		int numPoints = 0;
-		maxDepth = 0;
-		while (depthBuf.remaining() > 0) {
-			short depthVal = depthBuf.get();
-
-			if ((depthVal > 0)  && (depthVal < MAX_DEPTH_SIZE) && (depthVal < histogram.length)){      // skip histogram[0] 	  
-				histogram[depthVal]++;
-				numPoints++;
-			}
+		if (depthShown)
+			depthView.update(frame);
+		stallMessage = null;
+
+		try {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run()
+				{  paintImmediately(0, 0, getWidth(), getHeight());  }
+			});
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
+		catch (InvocationTargetException e) {
+			System.out.println(e.getCause());
+		}
+		recycle(frame);
+	}  // end of render()
 
-		// convert into a cummulative depth count (skipping histogram[0])
 
-		for (int i = 1; i <= maxDepth; i++){
-			try{
-				histogram[i] += histogram[i-1];
-			}catch(Exception e){
-				System.out.println("depth :"+maxDepth);
-				System.out.println("arr length:"+histogram.length);
-				System.out.println("i :"+i);
-			}
+	public void discard(Frame frame)
+	/* give back the user images of a processed frame that is dropped before
+	   its players are updated; they were never sent to the listeners */
+	{
+		for (int i = 0; i < MAX_USERS; i++) {
+			bufferPool.giveImage(frame.userImages[i], frame.userBounds[i]);
+			frame.userImages[i] = null;
 		}
+	}  // end of discard()
+
 
-		/* convert cummulative depth into the range 0.0 - 1.0f
-       which will later be used to modify a color from USER_COLORS[] */
-		if (numPoints > 0) {
-			for (int i = 1; i <= maxDepth; i++)    // skipping histogram[0]
-				histogram[i] = 1.0f - (histogram[i] / (float) numPoints);
+	public void recycle(Frame frame)
+	/* return the images replaced by this frame to the pool, once nothing
+	   draws them any more; render() does this, and so must anything that
+	   runs the stages without rendering */
+	{
+		for (int i = 0; i < MAX_USERS; i++) {
+			bufferPool.giveImage(frame.retiredImages[i], frame.retiredBounds[i]);
+			frame.retiredImages[i] = null;
 		}
-	}  // end of calcHistogram()
+	}  // end of recycle()
+
+
 
 	//-------------------- Draw User and Replace Background -------------------------
 
@@ -292,86 +307,166 @@ public class TrackerPanel extends JPanel
 		return image;
 	}  // end of loadImage()
 
-	private void screenUsers()
+	private void screenUsers(final Frame frame)
+	/* run the frame kernel over the whole frame, then keep an image of each
+	   wanted user in the frame, with the user's bounding box */
 	{
-		// store the Kinect RGB image as a pixel array in cameraPixels
-		try {
-			ByteBuffer imageBB = imageGen.getImageMap().createByteBuffer();
-			convertToPixels(imageBB, cameraPixels);
+		final boolean fromRuns = maskFirst;
+
+		/* the frame may be reused, and its images from last time are now
+		   owned by shownImages, so they mustn't be given back here again */
+		for (int i = 0; i < MAX_USERS; i++) {
+			frame.userImages[i] = null;
+			frame.userBounds[i].setBounds(0, 0, 0, 0);
 		}
-		catch (GeneralException e) {
-			System.out.println(e);
+
+		// a clean image for each tracked user a listener wants; the kernel writes straight into them
+		findWantedUsers(frame.trackedUsers);
+		for (int i = 1; i < MAX_USERS; i++) {
+			if (wantedUsers[i]) {
+				frame.userImages[i] = bufferPool.takeImage();
+				userPixels[i] = FrameBufferPool.getPixels(frame.userImages[i]);
+			}
 		}
-		userPixels = extractUserPixels(cameraPixels);
 
+		strips.run(imHeight, new StripExecutor.StripTask() {
+			public void run(int strip, int firstRow, int endRow)
+			{
+				if (fromRuns)
+					processStripMaskFirst(frame, firstRow, endRow);
+				else
+					processStrip(frame, strip, firstRow, endRow);
+			}
+		});
+
+		if (fromRuns)
+			frame.labelRuns.findBounds(frame.userBounds);
+		else
+			findUserBounds(frame.userBounds);
+		for (int i = 0; i < MAX_USERS; i++) {
+			userPixels[i] = null;
+			Rectangle bounds = frame.userBounds[i];
+			if (frame.userImages[i] != null && bounds.isEmpty()) {    // user isn't in the frame, so the image is still clean
+				bufferPool.giveImage(frame.userImages[i], bounds);
+				frame.userImages[i] = null;
+			}
+		}
 	}  // end of screenUsers()
 
-	private BufferedImage convertToUserImage(int [] pixels){
-		// change the modified pixels into an image
-		BufferedImage userImage = new BufferedImage(imWidth, imHeight, BufferedImage.TYPE_INT_ARGB);
-		userImage.setRGB(0, 0, imWidth, imHeight, pixels, 0, imWidth);
-		return userImage;
-	}
 
-	private void convertToPixels(ByteBuffer pixelsRGB, int[] cameraPixels)
-	/* Transform the ByteBuffer of pixel data into a pixel array
-     Converts RGB bytes to ARGB ints with no transparency. 
-	 */
+	private void findWantedUsers(int[] trackedUsers)
+	// find the tracked users that a listener wants an image of
 	{
-		int rowStart = 0;
-		// rowStart will index the first byte (red) in each row;
-		// starts with first row, and moves down
-
-		int bbIdx;               // index into ByteBuffer
-		int i = 0;               // index into pixels int[]
-		int rowLen = imWidth * 3;    // number of bytes in each row
-		for (int row = 0; row < imHeight; row++) {
-			bbIdx = rowStart;
-			// System.out.println("bbIdx: " + bbIdx);
-			for (int col = 0; col < imWidth; col++) {
-				int pixR = pixelsRGB.get( bbIdx++ );
-				int pixG = pixelsRGB.get( bbIdx++ );
-				int pixB = pixelsRGB.get( bbIdx++ );
-				cameraPixels[i++] = 
-						0xFF000000 | ((pixR & 0xFF) << 16) | 
-						((pixG & 0xFF) << 8) | (pixB & 0xFF);
+		Arrays.fill(wantedUsers, false);
+		for (int userID : trackedUsers) {
+			if (userID <= 0 || userID >= MAX_USERS)
+				continue;
+			for (CameraListener cl : cameraListeners) {
+				if (cl.wantsUser(userID)) {
+					wantedUsers[userID] = true;
+					break;
+				}
 			}
-			rowStart += rowLen;   // move to next row
 		}
-	}  // end of convertToPixels()
+	}  // end of findWantedUsers()
+
 
-	private int[][] extractUserPixels(int[] cameraPixels)
-	/* assign the "hide BG" value to any image pixels used for non-users
-     thereby making it transparent
+	private void resetStripBounds(int strip)
+	{
+		Arrays.fill(minX[strip], Integer.MAX_VALUE);
+		Arrays.fill(minY[strip], Integer.MAX_VALUE);
+		Arrays.fill(maxX[strip], -1);
+		Arrays.fill(maxY[strip], -1);
+	}  // end of resetStripBounds()
+
+
+	private void processStrip(Frame frame, int strip, int firstRow, int endRow)
+	/* The fused frame kernel. One pass over the label map for rows firstRow
+	   to endRow-1, which grows each user's bounding box for the strip, and
+	   converts each pixel of a wanted user to ARGB in that user's image. The
+	   background is skipped; the user images are transparent there already.
 	 */
 	{
-		int [][] userPixels = new int[10][cameraPixels.length];
-
-		depthMD = depthGen.getMetaData();    // reassignment to avoid a flickering viewpoint
-
-		// update the user ID map
-		ShortBuffer usersBuf = sceneMD.getData().createShortBuffer();
-		/* each pixel holds an user ID (e.g. 1, 2, 3), or 0 to 
+		short[] users = frame.labels;
+		/* each pixel of users holds an user ID (e.g. 1, 2, 3), or 0 to 
          denote that the pixel is part of the background.  */
+		byte[] pixelsRGB = frame.rgb;
+
+		resetStripBounds(strip);
+		int[] minX = this.minX[strip], minY = this.minY[strip];
+		int[] maxX = this.maxX[strip], maxY = this.maxY[strip];
+
+		int pos = firstRow*imWidth;
+		for (int y = firstRow; y < endRow; y++) {
+			for (int x = 0; x < imWidth; x++, pos++) {
+				int userID = users[pos];
+				if (userID <= 0 || userID >= MAX_USERS)  // part of the background, or no user we keep
+					continue;
+				int[] pixels = userPixels[userID];
+				if (pixels != null)   // the user is wanted
+					pixels[pos] = RGBConverter.toARGB(pixelsRGB, 3*pos);
+				if (x < minX[userID])
+					minX[userID] = x;
+				if (x > maxX[userID])
+					maxX[userID] = x;
+				if (y < minY[userID])
+					minY[userID] = y;
+				maxY[userID] = y;
+			}
+		}
+	}  // end of processStrip()
+
 
-		while (usersBuf.remaining() > 0) {
-			int pos = usersBuf.position();
-			short userID = usersBuf.get();
-			if (userID == 0) {// if not a user (i.e. is part of the background)
-				cameraPixels[pos] = hideBGPixel;   // make pixel transparent
-//				userPixels[userID][pos] = hideBGPixel;
+	private void processStripMaskFirst(Frame frame, int firstRow, int endRow)
+	/* The mask-first version of the frame kernel, with the same user images
+	   as processStrip(). It goes through the label runs of rows firstRow to
+	   endRow-1, and converts the RGB pixels of each run of a wanted user
+	   straight into that user's image. The background is never touched, and
+	   the bounding boxes come from the runs too, in findBounds().
+	 */
+	{
+		LabelRuns runs = frame.labelRuns;
+		int[] rowRuns = runs.rowRuns, starts = runs.starts, lengths = runs.lengths;
+		short[] users = runs.users;
+		byte[] pixelsRGB = frame.rgb;
+
+		for (int y = firstRow; y < endRow; y++) {
+			int rowStart = y*imWidth;
+			for (int r = rowRuns[y]; r < rowRuns[y+1]; r++) {
+				int userID = users[r];
+				if (userID <= 0 || userID >= MAX_USERS || userPixels[userID] == null)
+					continue;   // not a wanted user
+				int pos = rowStart + starts[r];
+				RGBConverter.convert(pixelsRGB, 3*pos, userPixels[userID], pos, lengths[r]);
 			}
-			else{
-				userPixels[userID][pos] = cameraPixels[pos];
+		}
+	}  // end of processStripMaskFirst()
+
+
+	private void findUserBounds(Rectangle[] userBounds)
+	// merge the bounding boxes the frame kernel found for each strip
+	{
+		for (int i = 0; i < MAX_USERS; i++) {
+			int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE, x1 = -1, y1 = -1;
+			for (int s = 0; s < minX.length; s++) {
+				if (maxX[s][i] < 0)   // user isn't in this strip
+					continue;
+				x0 = Math.min(x0, minX[s][i]);
+				y0 = Math.min(y0, minY[s][i]);
+				x1 = Math.max(x1, maxX[s][i]);
+				y1 = Math.max(y1, maxY[s][i]);
 			}
+			if (x1 < 0)   // user isn't in the frame
+				userBounds[i].setBounds(0, 0, 0, 0);
+			else
+				userBounds[i].setBounds(x0, y0, x1-x0+1, y1-y0+1);
 		}
-		return userPixels;
-	}  // end of hideBackground()
+	}  // end of findUserBounds()
 
 	// -------------------- drawing -------------------------
 
 	public void paintComponent(Graphics g)
-	// Draw the depth image with coloured users, skeletons, and statistics info
+	// Draw the background, the depth layer if it is shown, and the players
 	{ 
 		super.paintComponent(g);
 		Graphics2D g2d = (Graphics2D) g;
@@ -385,10 +480,22 @@ public class TrackerPanel extends JPanel
 		if(backIm != null){
 			g2d.drawImage(backIm, new AffineTransform(scaleX / backIm.getWidth(), 0, 0, scaleY / backIm.getHeight(), 0, 0), this);	
 		}
+		if(depthShown){
+			BufferedImage depthIm = depthView.getImage();
+			g2d.drawImage(depthIm, new AffineTransform(scaleX / depthIm.getWidth(), 0, 0, scaleY / depthIm.getHeight(), 0, 0), this);
+		}
 		g2d.setTransform(prevTransform);
 		playerController.drawAll(g2d, size);
+		String msg = stallMessage;
+		if (msg != null) {
+			g2d.setFont(msgFont);
+			g2d.setColor(Color.BLACK);
+			g2d.drawString(msg, 11, size.height - 9);
+			g2d.setColor(Color.YELLOW);
+			g2d.drawString(msg, 10, size.height - 10);
+		}
 //		playerController.drawAll(g2d, scaleX / backIm.getWidth(), scaleY / backIm.getHeight());	
 			
 	} // end of paintComponent()
 
-} // end of TrackerPanel class
\ No newline at end of file
+} // end of TrackerPanel class
\ No newline at end of file
@@ -0,0 +1,68 @@
+package no.uio.kulu;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import no.uio.kulu.FrameSource.UserListener;
+
+/* UserChanges.java
+
+   Works out the user events of a source that only has the state of each
+   frame, such as a recording or the frame ring: a user who appears is
+   detected, one who disappears is lost, and one who gets a skeleton is
+   calibrated. Used by RecordedFrameSource and RingFrameSource.
+ */
+class UserChanges
+{
+	private boolean[] present = new boolean[Frame.MAX_USERS];      // users in the current frame
+	private boolean[] calibrated = new boolean[Frame.MAX_USERS];   // users with a skeleton
+	private boolean[] nowPresent = new boolean[Frame.MAX_USERS];   // users in the next frame
+
+
+	void update(ByteBuffer rec, List<UserListener> listeners)
+	/* report the changes from the last frame to the frame record rec, laid
+	   out as in FrameFile */
+	{
+		Arrays.fill(nowPresent, false);
+		int numUsers = rec.getInt(FrameFile.FRM_NUM_USERS);
+		for (int i = 0; i < numUsers; i++) {
+			int userID = rec.getInt(FrameFile.FRM_USERS + 4*i);
+			if (userID > 0 && userID < Frame.MAX_USERS)
+				nowPresent[userID] = true;
+		}
+		int skeletons = rec.getInt(FrameFile.FRM_SKELETONS);
+
+		for (int userID = 1; userID < Frame.MAX_USERS; userID++) {
+			if (nowPresent[userID] && !present[userID])
+				for (UserListener l : listeners)
+					l.userDetected(userID);
+			else if (!nowPresent[userID] && present[userID]) {
+				calibrated[userID] = false;
+				for (UserListener l : listeners)
+					l.userLost(userID);
+			}
+			present[userID] = nowPresent[userID];
+
+			if ((skeletons & (1 << userID)) != 0 && !calibrated[userID]) {
+				calibrated[userID] = true;
+				for (UserListener l : listeners)
+					l.userCalibrated(userID);
+			}
+		}
+	}  // end of update()
+
+
+	void loseAll(List<UserListener> listeners)
+	// report every present user as lost, e.g. before starting again
+	{
+		Arrays.fill(calibrated, false);
+		for (int userID = 1; userID < Frame.MAX_USERS; userID++)
+			if (present[userID]) {
+				present[userID] = false;
+				for (UserListener l : listeners)
+					l.userLost(userID);
+			}
+	}  // end of loseAll()
+
+} // end of UserChanges class
@@ -0,0 +1,52 @@
+package no.uio.kulu;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* VirtualClock.java
+
+   A clock that only moves when it is told to: by the sensor timestamps of
+   the frames read (or the events replayed), or by advance(). Sleeping on
+   it returns at once, so the frame sources don't wait between frames and
+   a run goes as fast as the frames can be processed, while the dwell
+   timers see the same time between frames as they would live.
+
+   A timestamp that goes backwards (a recording looping, or a new
+   recording) doesn't move the clock, and the clock follows the timestamps
+   on from there.
+ */
+public class VirtualClock extends Clock
+{
+	private final AtomicLong nanos = new AtomicLong();
+	private long lastMicros = -1;    // the last sensor timestamp, -1 before the first
+
+
+	public long nanoTime()
+	{  return nanos.get();  }
+
+
+	public void sleepUntil(long time)
+	{}    // the time is only moved by the sensor timestamps
+
+
+	public synchronized void sensorTime(long micros)
+	{
+		if (lastMicros >= 0 && micros > lastMicros)
+			advance((micros - lastMicros) * 1000);
+		lastMicros = micros;
+	}  // end of sensorTime()
+
+
+	public boolean isRealTime()
+	{  return false;  }
+
+
+	public void advance(long nanos)
+	{
+		if (nanos > 0)
+			this.nanos.addAndGet(nanos);
+	}
+
+	public String toString()
+	{  return String.format("virtual clock at %.3f s", nanos.get() / 1e9);  }
+
+} // end of VirtualClock class